@@ -0,0 +1,78 @@
+package eu.europeana.oaipmh.benchmarks;
+
+import eu.europeana.corelib.edm.utils.EdmUtils;
+import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
+import eu.europeana.metis.schema.jibx.RDF;
+import eu.europeana.oaipmh.service.DBRecordProvider;
+import eu.europeana.oaipmh.service.FullBeanFixtures;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of records from FullBean to EDM as done by the {@link DBRecordProvider}: FullBean to RDF
+ * (<code>EdmUtils.toRDF</code>), RDF to RDF/XML (JibX marshalling) and the complete conversion, for small, medium and
+ * large records (see {@link FullBeanFixtures}). The <code>toEDMCorelib</code> benchmark measures
+ * <code>EdmUtils.toEDM</code>, which produces the same RDF/XML with an xml declaration that then has to be removed.
+ *
+ * Run with <code>java -jar benchmarks/target/benchmarks.jar ConversionBenchmark -prof gc</code> to also report the
+ * allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"small", "medium", "large"})
+    private String fixture;
+
+    // the provider isn't initialized (no Mongo connection), we only use the conversion methods
+    private final DBRecordProvider provider = new DBRecordProvider();
+
+    private FullBeanImpl bean;
+    private RDF rdf;
+
+    @Setup
+    public void setup() throws IOException, InternalServerErrorException {
+        bean = FullBeanFixtures.load(fixture);
+        rdf = provider.getRDF(bean);
+        if (rdf == null) {
+            throw new IllegalStateException("Fixture " + fixture + " could not be converted to RDF");
+        }
+    }
+
+    @Benchmark
+    public RDF toRDF() {
+        return provider.getRDF(bean);
+    }
+
+    @Benchmark
+    public String toEDM() throws InternalServerErrorException {
+        return provider.getEDM(rdf);
+    }
+
+    @Benchmark
+    public String toEDMCorelib() {
+        return EdmUtils.toEDM(rdf);
+    }
+
+    @Benchmark
+    public String fullBeanToEDM() throws InternalServerErrorException {
+        return provider.convertToEDM(bean.getAbout(), bean);
+    }
+}
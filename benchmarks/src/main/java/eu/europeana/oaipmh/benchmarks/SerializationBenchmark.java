@@ -0,0 +1,138 @@
+package eu.europeana.oaipmh.benchmarks;
+
+import eu.europeana.oaipmh.model.GetRecord;
+import eu.europeana.oaipmh.model.Header;
+import eu.europeana.oaipmh.model.ListIdentifiers;
+import eu.europeana.oaipmh.model.ListRecords;
+import eu.europeana.oaipmh.model.RDFMetadata;
+import eu.europeana.oaipmh.model.Record;
+import eu.europeana.oaipmh.model.ResumptionToken;
+import eu.europeana.oaipmh.model.request.GetRecordRequest;
+import eu.europeana.oaipmh.model.request.ListIdentifiersRequest;
+import eu.europeana.oaipmh.model.request.ListRecordsRequest;
+import eu.europeana.oaipmh.model.response.OAIResponse;
+import eu.europeana.oaipmh.service.BaseService;
+import eu.europeana.oaipmh.service.exception.SerializationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of OAI-PMH responses with {@link BaseService#serialize(OAIResponse, java.io.OutputStream)},
+ * i.e. the Jackson XmlMapper with JAX-B annotations, ISO8601 dates and raw EDM metadata.
+ *
+ * Build with <code>mvn clean install -Pbenchmarks</code> and run with
+ * <code>java -jar benchmarks/target/benchmarks.jar SerializationBenchmark -prof gc</code> to also report the
+ * allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final String BASE_URL = "https://api.europeana.eu/oai/record";
+    private static final String METADATA_PREFIX = "edm";
+    private static final String SET = "90402_M_NL_Rijksmuseum";
+    private static final String RECORD_FILE = "record.xml";
+    private static final String RECORD_ID = "90402/BK_1978_399";
+    private static final String IDENTIFIER_PREFIX = "http://data.europeana.eu/item/";
+    private static final String TOKEN = "AgAUwKjIwQaE5wNkE29lZG0WQW9KNHg0djR0ZUlEUHdsb1kzTmpBeU1TOHpNMU5pWkdOaE1qTmpNekEz";
+
+    @Param({"300"})
+    private int identifiers;
+
+    @Param({"50"})
+    private int records;
+
+    private final BaseService service = new BaseService();
+
+    private OAIResponse listIdentifiersResponse;
+    private OAIResponse listRecordsResponse;
+    private OAIResponse getRecordResponse;
+
+    // reused between invocations so only the serialization itself allocates memory
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4 * 1024 * 1024);
+
+    @Setup
+    public void setup() throws IOException {
+        String edm = loadRecord();
+        Date datestamp = new Date();
+        ResumptionToken token = new ResumptionToken(TOKEN, 1_000_000L, new Date(datestamp.getTime() + 86_400_000L), 0);
+
+        List<Header> headers = new ArrayList<>(identifiers);
+        for (int i = 0; i < identifiers; i++) {
+            headers.add(createHeader(i, datestamp));
+        }
+        listIdentifiersResponse = new ListIdentifiers(headers, token).getResponse(
+                new ListIdentifiersRequest("ListIdentifiers", BASE_URL, METADATA_PREFIX, SET, null, null));
+
+        List<Record> recordList = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            Header header = createHeader(i, datestamp);
+            String id = header.getIdentifier().substring(IDENTIFIER_PREFIX.length());
+            recordList.add(new Record(header, new RDFMetadata(edm.replace(RECORD_ID, id))));
+        }
+        listRecordsResponse = new ListRecords(recordList, token).getResponse(
+                new ListRecordsRequest("ListRecords", BASE_URL, METADATA_PREFIX, SET, null, null));
+
+        Header header = new Header(IDENTIFIER_PREFIX + RECORD_ID, datestamp, SET);
+        getRecordResponse = new GetRecord(new Record(header, new RDFMetadata(edm))).getResponse(
+                new GetRecordRequest("GetRecord", BASE_URL, METADATA_PREFIX, IDENTIFIER_PREFIX + RECORD_ID));
+    }
+
+    private static Header createHeader(int index, Date datestamp) {
+        String id = "90402/BK_" + (1_000_000 + index);
+        return new Header(IDENTIFIER_PREFIX + id, datestamp, Collections.singletonList(SET));
+    }
+
+    private static String loadRecord() throws IOException {
+        try (InputStream stream = SerializationBenchmark.class.getClassLoader().getResourceAsStream(RECORD_FILE)) {
+            if (stream == null) {
+                throw new IOException("Resource " + RECORD_FILE + " not found");
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int serialize(OAIResponse response) throws SerializationException {
+        outputStream.reset();
+        service.serialize(response, outputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int listIdentifiers() throws SerializationException {
+        return serialize(listIdentifiersResponse);
+    }
+
+    @Benchmark
+    public int listRecords() throws SerializationException {
+        return serialize(listRecordsResponse);
+    }
+
+    @Benchmark
+    public int getRecord() throws SerializationException {
+        return serialize(getRecordResponse);
+    }
+}
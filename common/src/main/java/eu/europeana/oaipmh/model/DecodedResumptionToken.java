@@ -0,0 +1,90 @@
+package eu.europeana.oaipmh.model;
+
+import java.util.Date;
+
+/**
+ * Immutable representation of a resumption token received from a client. The token string is decoded only once
+ * (see {@link eu.europeana.oaipmh.util.ResumptionTokenHelper#decodeResumptionToken(String)}) and all parts are available
+ * as separate fields. Optional parts that were not present in the token are null.
+ */
+public final class DecodedResumptionToken {
+
+    private final Date from;
+    private final Date until;
+    private final String set;
+    private final String format;
+    private final Date expirationDate;
+    private final long completeListSize;
+    private final long cursor;
+    private final String cursorMark;
+
+    public DecodedResumptionToken(Date from, Date until, String set, String format, Date expirationDate,
+                                  long completeListSize, long cursor, String cursorMark) {
+        this.from = copy(from);
+        this.until = copy(until);
+        this.set = set;
+        this.format = format;
+        this.expirationDate = copy(expirationDate);
+        this.completeListSize = completeListSize;
+        this.cursor = cursor;
+        this.cursorMark = cursorMark;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    /**
+     * @return start date used for filtering identifiers or records, null if not specified
+     */
+    public Date getFrom() {
+        return copy(from);
+    }
+
+    /**
+     * @return end date used for filtering identifiers or records, null if not specified
+     */
+    public Date getUntil() {
+        return copy(until);
+    }
+
+    /**
+     * @return identifier of the set used for filtering identifiers or records, null if not specified
+     */
+    public String getSet() {
+        return set;
+    }
+
+    /**
+     * @return metadata format, null for ListSets tokens
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public Date getExpirationDate() {
+        return copy(expirationDate);
+    }
+
+    public long getCompleteListSize() {
+        return completeListSize;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return Solr cursor mark used to continue the query, null for ListSets tokens
+     */
+    public String getCursorMark() {
+        return cursorMark;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedResumptionToken{from=" + from + ", until=" + until + ", set=" + set + ", format=" + format +
+                ", expirationDate=" + expirationDate + ", completeListSize=" + completeListSize + ", cursor=" + cursor +
+                ", cursorMark=" + cursorMark + '}';
+    }
+}
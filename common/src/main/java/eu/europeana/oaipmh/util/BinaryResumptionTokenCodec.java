@@ -0,0 +1,194 @@
+package eu.europeana.oaipmh.util;
+
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Binary format of the resumption token (version 2). The token is encoded as:
+ *
+ * VERSION FLAGS EXPIRATION_TIME COMPLETE_LIST_SIZE CURSOR [FROM] [UNTIL] [SET] [FORMAT] [CURSOR_MARK]
+ *
+ *  where:
+ *
+ * VERSION - one byte, always 2
+ * FLAGS - one byte, bit mask telling which of the optional parts are present and how the cursor mark is stored
+ * EXPIRATION_TIME, COMPLETE_LIST_SIZE, CURSOR - unsigned varints, the expiration time in seconds since the epoch
+ * FROM, UNTIL - zigzag encoded varints with the number of seconds since the epoch
+ * SET, FORMAT - varint length followed by the UTF-8 bytes of the string
+ * CURSOR_MARK - varint length followed by the bytes of the cursor mark. Solr cursor marks are base64 strings, so when
+ * possible the decoded (raw) bytes are stored instead of the string.
+ *
+ * The result is encoded with URL-safe Base64 without padding.
+ */
+final class BinaryResumptionTokenCodec {
+
+    static final byte VERSION = 2;
+
+    private static final int FROM_FLAG = 1;
+    private static final int UNTIL_FLAG = 1 << 1;
+    private static final int SET_FLAG = 1 << 2;
+    private static final int FORMAT_FLAG = 1 << 3;
+    private static final int CURSOR_MARK_FLAG = 1 << 4;
+    private static final int RAW_CURSOR_MARK_FLAG = 1 << 5;
+
+    private static final long MS_PER_SECOND = 1000L;
+
+    private BinaryResumptionTokenCodec() {}
+
+    /**
+     * Encode the given parts into a token string
+     * @return URL-safe Base64 string without padding
+     */
+    static String encode(Date from, Date until, String set, String format, Date expirationDate,
+                         long completeListSize, long cursor, String cursorMark) {
+        byte[] rawCursorMark = toRawCursorMark(cursorMark);
+        int flags = 0;
+        flags |= from == null ? 0 : FROM_FLAG;
+        flags |= until == null ? 0 : UNTIL_FLAG;
+        flags |= isEmpty(set) ? 0 : SET_FLAG;
+        flags |= isEmpty(format) ? 0 : FORMAT_FLAG;
+        flags |= isEmpty(cursorMark) ? 0 : CURSOR_MARK_FLAG;
+        flags |= rawCursorMark == null ? 0 : RAW_CURSOR_MARK_FLAG;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        out.write(flags);
+        writeVarLong(out, toSeconds(expirationDate));
+        writeVarLong(out, completeListSize);
+        writeVarLong(out, cursor);
+        if (from != null) {
+            writeVarLong(out, zigZag(toSeconds(from)));
+        }
+        if (until != null) {
+            writeVarLong(out, zigZag(toSeconds(until)));
+        }
+        if ((flags & SET_FLAG) != 0) {
+            writeBytes(out, set.getBytes(StandardCharsets.UTF_8));
+        }
+        if ((flags & FORMAT_FLAG) != 0) {
+            writeBytes(out, format.getBytes(StandardCharsets.UTF_8));
+        }
+        if ((flags & CURSOR_MARK_FLAG) != 0) {
+            writeBytes(out, rawCursorMark == null ? cursorMark.getBytes(StandardCharsets.UTF_8) : rawCursorMark);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Decode the binary token
+     * @param token token bytes (already Base64 decoded), first byte must be the version
+     * @return decoded token
+     * @throws IllegalArgumentException when the token is not valid
+     */
+    static DecodedResumptionToken decode(byte[] token) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(token);
+            if (in.get() != VERSION) {
+                throw new IllegalArgumentException();
+            }
+            int flags = in.get();
+            Date expirationDate = fromSeconds(readVarLong(in));
+            long completeListSize = readVarLong(in);
+            long cursor = readVarLong(in);
+            Date from = (flags & FROM_FLAG) == 0 ? null : fromSeconds(unZigZag(readVarLong(in)));
+            Date until = (flags & UNTIL_FLAG) == 0 ? null : fromSeconds(unZigZag(readVarLong(in)));
+            String set = (flags & SET_FLAG) == 0 ? null : new String(readBytes(in), StandardCharsets.UTF_8);
+            String format = (flags & FORMAT_FLAG) == 0 ? null : new String(readBytes(in), StandardCharsets.UTF_8);
+            String cursorMark = null;
+            if ((flags & CURSOR_MARK_FLAG) != 0) {
+                byte[] bytes = readBytes(in);
+                cursorMark = (flags & RAW_CURSOR_MARK_FLAG) == 0 ? new String(bytes, StandardCharsets.UTF_8) : Base64.getEncoder().encodeToString(bytes);
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException();
+            }
+            return new DecodedResumptionToken(from, until, set, format, expirationDate, completeListSize, cursor, cursorMark);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the raw bytes of the cursor mark, but only if encoding these bytes again results in exactly the same
+     * cursor mark
+     */
+    private static byte[] toRawCursorMark(String cursorMark) {
+        if (isEmpty(cursorMark)) {
+            return null;
+        }
+        try {
+            byte[] raw = Base64.getDecoder().decode(cursorMark);
+            if (Base64.getEncoder().encodeToString(raw).equals(cursorMark)) {
+                return raw;
+            }
+        } catch (IllegalArgumentException e) {
+            // not a base64 string, so stored as it is
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static long toSeconds(Date date) {
+        return Math.floorDiv(date.getTime(), MS_PER_SECOND);
+    }
+
+    private static Date fromSeconds(long seconds) {
+        return new Date(seconds * MS_PER_SECOND);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        long length = readVarLong(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException();
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return bytes;
+    }
+}
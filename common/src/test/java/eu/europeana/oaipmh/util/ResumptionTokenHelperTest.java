@@ -1,11 +1,13 @@
 package eu.europeana.oaipmh.util;
 
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
 import eu.europeana.oaipmh.model.ResumptionToken;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Date;
 
@@ -22,6 +24,8 @@ public class ResumptionTokenHelperTest {
 
     private static final String NEXT_CURSOR_MARK = "ABC";
 
+    private static final String SOLR_CURSOR_MARK = "AoJ2r87j1t0CPw8vMjA0ODQzMi9pdGVtX0VINVJPRk5YQjRIT1NZWjRBUk82R0RCSkVHT1ozWUg1";
+
     private static final long COMPLETE_LIST_SIZE = 1234L;
 
     private static final long CURSOR = 300;
@@ -42,45 +46,93 @@ public class ResumptionTokenHelperTest {
     }
 
     @Test(expected = IllegalArgumentException.class)
-    public void testGetPartFromIncorrectToken() {
-        ResumptionTokenHelper.getCompleteListSize(INCORRECT_DECODED_TOKEN);
+    public void testDecodeIncorrectTextToken() {
+        ResumptionTokenHelper.decodeResumptionToken(encodeTextToken(INCORRECT_DECODED_TOKEN));
     }
 
     @Test
-    public void testTokenWithEmptyParts() {
-        assertTrue(ResumptionTokenHelper.getFrom(MANDATORY_PARTS_TOKEN).isEmpty());
-        assertTrue(ResumptionTokenHelper.getUntil(MANDATORY_PARTS_TOKEN).isEmpty());
-        assertTrue(ResumptionTokenHelper.getSet(MANDATORY_PARTS_TOKEN).isEmpty());
-        assertTrue(ResumptionTokenHelper.getFormat(MANDATORY_PARTS_TOKEN).isEmpty());
-        assertNotNull(ResumptionTokenHelper.getExpirationDate(MANDATORY_PARTS_TOKEN));
-        assertEquals(COMPLETE_LIST_SIZE, ResumptionTokenHelper.getCompleteListSize(MANDATORY_PARTS_TOKEN));
-        assertEquals(CURSOR, ResumptionTokenHelper.getCursor(MANDATORY_PARTS_TOKEN));
-        assertTrue(ResumptionTokenHelper.getCursorMark(MANDATORY_PARTS_TOKEN).isEmpty());
+    public void testDecodeTextTokenWithEmptyParts() {
+        DecodedResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodeTextToken(MANDATORY_PARTS_TOKEN));
+        assertNull(decodedToken.getFrom());
+        assertNull(decodedToken.getUntil());
+        assertNull(decodedToken.getSet());
+        assertNull(decodedToken.getFormat());
+        assertNotNull(decodedToken.getExpirationDate());
+        assertEquals(COMPLETE_LIST_SIZE, decodedToken.getCompleteListSize());
+        assertEquals(CURSOR, decodedToken.getCursor());
+        assertNull(decodedToken.getCursorMark());
     }
 
     @Test
     public void testEncodeDecode() {
-        Date expirationDate = new Date(System.currentTimeMillis() + TTL);
+        Date expirationDate = new Date((System.currentTimeMillis() + TTL) / 1000 * 1000);
         ResumptionToken encodedToken = ResumptionTokenHelper.createResumptionToken(FROM, UNTIL, SET, FORMAT, expirationDate, COMPLETE_LIST_SIZE, CURSOR, NEXT_CURSOR_MARK);
 
-        String decodedValue = new String(Base64.getUrlDecoder().decode(encodedToken.getValue()));
-        assertTrue(decodedValue.contains(FROM));
-        assertTrue(decodedValue.contains(UNTIL));
-        assertTrue(decodedValue.contains(SET));
-        assertTrue(decodedValue.contains(FORMAT));
-        assertTrue(decodedValue.contains(String.valueOf(expirationDate.getTime())));
-        assertTrue(decodedValue.contains(String.valueOf(COMPLETE_LIST_SIZE)));
-        assertTrue(decodedValue.contains(String.valueOf(CURSOR)));
-        assertTrue(decodedValue.contains(NEXT_CURSOR_MARK));
-
-        ResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodedToken.getValue());
-        assertEquals(FROM, ResumptionTokenHelper.getFrom(decodedToken.getValue()));
-        assertEquals(UNTIL, ResumptionTokenHelper.getUntil(decodedToken.getValue()));
-        assertEquals(SET, ResumptionTokenHelper.getSet(decodedToken.getValue()));
-        assertEquals(FORMAT, ResumptionTokenHelper.getFormat(decodedToken.getValue()));
-        assertEquals(expirationDate, ResumptionTokenHelper.getExpirationDate(decodedToken.getValue()));
-        assertEquals(COMPLETE_LIST_SIZE, ResumptionTokenHelper.getCompleteListSize(decodedToken.getValue()));
-        assertEquals(CURSOR, ResumptionTokenHelper.getCursor(decodedToken.getValue()));
-        assertEquals(NEXT_CURSOR_MARK, ResumptionTokenHelper.getCursorMark(decodedToken.getValue()));
+        DecodedResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodedToken.getValue());
+        assertEquals(DateConverter.fromIsoDateTime(FROM), decodedToken.getFrom());
+        assertEquals(DateConverter.fromIsoDateTime(UNTIL), decodedToken.getUntil());
+        assertEquals(SET, decodedToken.getSet());
+        assertEquals(FORMAT, decodedToken.getFormat());
+        assertEquals(expirationDate, decodedToken.getExpirationDate());
+        assertEquals(COMPLETE_LIST_SIZE, decodedToken.getCompleteListSize());
+        assertEquals(CURSOR, decodedToken.getCursor());
+        assertEquals(NEXT_CURSOR_MARK, decodedToken.getCursorMark());
+    }
+
+    @Test
+    public void testEncodeDecodeSolrCursorMark() {
+        Date expirationDate = new Date(System.currentTimeMillis() + TTL);
+        ResumptionToken encodedToken = ResumptionTokenHelper.createResumptionToken(FROM, null, null, FORMAT, expirationDate, COMPLETE_LIST_SIZE, CURSOR, SOLR_CURSOR_MARK);
+
+        DecodedResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodedToken.getValue());
+        assertEquals(DateConverter.fromIsoDateTime(FROM), decodedToken.getFrom());
+        assertNull(decodedToken.getUntil());
+        assertNull(decodedToken.getSet());
+        assertEquals(SOLR_CURSOR_MARK, decodedToken.getCursorMark());
+        // raw cursor mark is stored, so the token is shorter than the token in the old text format
+        String textToken = String.join("|", FROM, "", "", FORMAT, String.valueOf(expirationDate.getTime()),
+                String.valueOf(COMPLETE_LIST_SIZE), String.valueOf(CURSOR), SOLR_CURSOR_MARK);
+        assertTrue(encodedToken.getValue().length() < encodeTextToken(textToken).length() * 3 / 4);
+    }
+
+    @Test
+    public void testEncodeDecodeWithMandatoryParts() {
+        Date expirationDate = new Date(System.currentTimeMillis() + TTL);
+        ResumptionToken encodedToken = ResumptionTokenHelper.createResumptionToken(expirationDate, COMPLETE_LIST_SIZE, CURSOR);
+
+        DecodedResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodedToken.getValue());
+        assertNull(decodedToken.getFrom());
+        assertNull(decodedToken.getUntil());
+        assertNull(decodedToken.getSet());
+        assertNull(decodedToken.getFormat());
+        assertNull(decodedToken.getCursorMark());
+        assertEquals(COMPLETE_LIST_SIZE, decodedToken.getCompleteListSize());
+        assertEquals(CURSOR, decodedToken.getCursor());
+    }
+
+    @Test
+    public void testDecodeTextToken() {
+        Date expirationDate = new Date(System.currentTimeMillis() + TTL);
+        String textToken = String.join("|", FROM, UNTIL, SET, FORMAT, String.valueOf(expirationDate.getTime()),
+                String.valueOf(COMPLETE_LIST_SIZE), String.valueOf(CURSOR), SOLR_CURSOR_MARK);
+        DecodedResumptionToken decodedToken = ResumptionTokenHelper.decodeResumptionToken(encodeTextToken(textToken));
+        assertEquals(DateConverter.fromIsoDateTime(FROM), decodedToken.getFrom());
+        assertEquals(DateConverter.fromIsoDateTime(UNTIL), decodedToken.getUntil());
+        assertEquals(SET, decodedToken.getSet());
+        assertEquals(FORMAT, decodedToken.getFormat());
+        assertEquals(expirationDate, decodedToken.getExpirationDate());
+        assertEquals(COMPLETE_LIST_SIZE, decodedToken.getCompleteListSize());
+        assertEquals(CURSOR, decodedToken.getCursor());
+        assertEquals(SOLR_CURSOR_MARK, decodedToken.getCursorMark());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeTruncatedToken() {
+        ResumptionToken encodedToken = ResumptionTokenHelper.createResumptionToken(FROM, UNTIL, SET, FORMAT, new Date(), COMPLETE_LIST_SIZE, CURSOR, NEXT_CURSOR_MARK);
+        ResumptionTokenHelper.decodeResumptionToken(encodedToken.getValue().substring(0, 10));
+    }
+
+    private static String encodeTextToken(String textToken) {
+        return Base64.getUrlEncoder().encodeToString(textToken.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -1,10 +1,19 @@
 package eu.europeana.metis.utils;
 
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
 import com.mongodb.MongoSecurityException;
 import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import eu.europeana.oaipmh.util.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
 import java.net.SocketException;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
@@ -21,9 +30,28 @@ import org.springframework.web.client.ResourceAccessException;
  */
 public final class ExternalRequestUtil {
 
+    /**
+     * Name of the Mongo backend, used for its circuit breaker and metrics
+     */
+    public static final String MONGO = "mongo";
+    /**
+     * Name of the Solr backend, used for its circuit breaker and metrics
+     */
+    public static final String SOLR = "solr";
+    public static final String RETRIES = "oaipmh.external.retries";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(ExternalRequestUtil.class);
     private static final int MAX_RETRIES = 10;
     private static final int SLEEP_TIMEOUT = 500;
+    private static final int BACKEND_MAX_RETRIES = 5;
+    private static final long BACKOFF_BASE_MILLIS = 100;
+    private static final long BACKOFF_MAX_MILLIS = 2000;
+    // circuit breakers only open when configured, see configureCircuitBreaker
+    private static final int DEFAULT_FAILURE_THRESHOLD = 0;
+    private static final long DEFAULT_OPEN_DURATION_MILLIS = 10000;
+
+    private static final Map<String, CircuitBreaker> CIRCUIT_BREAKERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> RETRY_COUNTERS = new ConcurrentHashMap<>();
 
     private ExternalRequestUtil() {
     }
@@ -200,6 +228,124 @@ public final class ExternalRequestUtil {
         return null;
     }
 
+    /**
+     * Retries a request to a backend (e.g. {@link #MONGO} or {@link #SOLR}) when it fails because the backend is not
+     * available (connection errors, timeouts, a replica set without primary). Retries wait with exponential backoff
+     * and jitter, so clients don't retry in lockstep, and stop after {@link #BACKEND_MAX_RETRIES} retries. All
+     * requests to a backend share a {@link CircuitBreaker}: when it's open the request fails immediately with a
+     * {@link CircuitBreaker.CircuitBreakerOpenException} instead of waiting for a backend that is down. Other
+     * exceptions are thrown without retrying.
+     *
+     * The request is retried on the calling thread, which waits in between (at most about 3 seconds in total). All
+     * callers are request threads that need the result to write their response, so scheduling the retries on another
+     * thread would only move the wait, not free the thread. When a backend is down for longer its circuit breaker
+     * opens, after which requests don't wait at all.
+     *
+     * @param backend name of the backend
+     * @param supplier the respective supplier encapsulating the external request
+     * @return the expected object as a result of the external request
+     */
+    public static <R> R retryableBackendRequest(String backend, Supplier<R> supplier) {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(backend);
+        int attempt = 0;
+        do {
+            circuitBreaker.acquire();
+            try {
+                R result = supplier.get();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                long delay = getRetryDelay(circuitBreaker, e, ++attempt);
+                if (delay < 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    LOGGER.warn("Thread was interrupted while waiting for retry.", ex);
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        } while (true);
+    }
+
+    /**
+     * Report a failed attempt to the circuit breaker when the backend wasn't available and determine if it should be
+     * retried
+     *
+     * @return time to wait before the next attempt, or -1 if the request should not be retried
+     */
+    private static long getRetryDelay(CircuitBreaker circuitBreaker, Throwable e, int attempt) {
+        if (!isBackendUnavailable(e)) {
+            // not necessarily a response of the backend, so it's not reported to the circuit breaker
+            return -1;
+        }
+        circuitBreaker.onFailure();
+        if (attempt > BACKEND_MAX_RETRIES || circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            return -1;
+        }
+        long delay = getBackoffDelay(attempt);
+        RETRY_COUNTERS.computeIfAbsent(circuitBreaker.getBackend(), backend -> Counter.builder(RETRIES)
+                .description("Requests to external services that were retried")
+                .tag("backend", backend)
+                .register(Metrics.globalRegistry))
+                .increment();
+        LOGGER.warn("Request to {} has failed ({}), retry {} of {} in {}ms", circuitBreaker.getBackend(),
+                e.getMessage(), attempt, BACKEND_MAX_RETRIES, delay);
+        return delay;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": the delay doubles with every retry (up to {@link
+     * #BACKOFF_MAX_MILLIS}) and a random value between half and the full delay is used
+     *
+     * @param attempt number of the failed attempt, starting at 1
+     * @return delay in ms before the next attempt
+     */
+    static long getBackoffDelay(int attempt) {
+        long delay = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+    }
+
+    /**
+     * Check if an exception (or one of its causes) means the backend is not available
+     */
+    static boolean isBackendUnavailable(Throwable e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof IOException || cause instanceof MongoSocketException
+                    || cause instanceof MongoTimeoutException || cause instanceof MongoNotPrimaryException
+                    || cause instanceof MongoNodeIsRecoveringException) {
+                return true;
+            }
+            cause = cause.getCause() == cause ? null : cause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the circuit breaker of a backend, creating it when necessary
+     *
+     * @param backend name of the backend
+     * @return the circuit breaker
+     */
+    public static CircuitBreaker getCircuitBreaker(String backend) {
+        return CIRCUIT_BREAKERS.computeIfAbsent(backend,
+                name -> new CircuitBreaker(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS));
+    }
+
+    /**
+     * Configures the circuit breaker of a backend
+     *
+     * @param backend name of the backend
+     * @param failureThreshold number of consecutive failures after which requests fail fast, 0 to never fail fast
+     * @param openDurationMillis time (in ms) requests fail fast before one request is tried again
+     */
+    public static void configureCircuitBreaker(String backend, int failureThreshold, long openDurationMillis) {
+        getCircuitBreaker(backend).configure(failureThreshold, openDurationMillis);
+    }
+
     /**
      * Creates a singleton Map that contains the type {@link SocketException} as key and the
      * "Connection reset" as value
@@ -1,8 +1,11 @@
 package eu.europeana.oaipmh;
 
+import eu.europeana.metis.utils.ExternalRequestUtil;
 import eu.europeana.oaipmh.model.metadata.MetadataFormatsService;
 import eu.europeana.oaipmh.service.*;
 import eu.europeana.oaipmh.util.MemoryUtils;
+import eu.europeana.oaipmh.web.CompressionFilter;
+import eu.europeana.oaipmh.web.PipelineMetricsFilter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,6 +14,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
 import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.PropertySource;
@@ -20,6 +24,7 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import java.lang.reflect.Constructor;
@@ -45,6 +50,24 @@ public class OaiPmhApplication extends SpringBootServletInitializer  {
     @Value("${recordProviderClass}")
     private String recordProviderClass;
 
+    @Value("${identifierProviderClass:eu.europeana.oaipmh.service.SearchApi}")
+    private String identifierProviderClass;
+
+    @Value("${circuitBreakerFailureThreshold:0}")
+    private int circuitBreakerFailureThreshold;
+
+    @Value("${circuitBreakerOpenDuration:10000}")
+    private long circuitBreakerOpenDuration;
+
+    /**
+     * Configure the circuit breakers that make requests to Mongo and Solr fail fast when they're not available
+     */
+    @PostConstruct
+    public void configureCircuitBreakers() {
+        ExternalRequestUtil.configureCircuitBreaker(ExternalRequestUtil.MONGO, circuitBreakerFailureThreshold, circuitBreakerOpenDuration);
+        ExternalRequestUtil.configureCircuitBreaker(ExternalRequestUtil.SOLR, circuitBreakerFailureThreshold, circuitBreakerOpenDuration);
+    }
+
     @Scheduled(fixedRate = 300_000) // 5 minutes
     public void logMemoryUsage() {
         // Temporary code to check memory usage / leaks
@@ -74,6 +97,29 @@ public class OaiPmhApplication extends SpringBootServletInitializer  {
         return new CorsFilter(source);
     }
 
+    /**
+     * Setup compression of OAI-PMH responses using the encodings advertised in the Identify response
+     */
+    @Bean
+    public FilterRegistrationBean<CompressionFilter> compressionFilter(@Value("${compression}") String[] compression,
+                                                                       @Value("${compressionLevel:6}") int compressionLevel,
+                                                                       @Value("${compressionBufferSize:8192}") int compressionBufferSize) {
+        FilterRegistrationBean<CompressionFilter> registration = new FilterRegistrationBean<>(
+                new CompressionFilter(compression, compressionLevel, compressionBufferSize));
+        registration.addUrlPatterns("/oai", "/oaicat/OAIHandler");
+        return registration;
+    }
+
+    /**
+     * Makes the verb of OAI-PMH requests available for tagging the pipeline metrics
+     */
+    @Bean
+    public FilterRegistrationBean<PipelineMetricsFilter> pipelineMetricsFilter() {
+        FilterRegistrationBean<PipelineMetricsFilter> registration = new FilterRegistrationBean<>(new PipelineMetricsFilter());
+        registration.addUrlPatterns("/oai", "/oaicat/OAIHandler");
+        return registration;
+    }
+
     /**
      * Record provider that returns record information
      * @return
@@ -99,11 +145,20 @@ public class OaiPmhApplication extends SpringBootServletInitializer  {
 
     /**
      * Identifiers provider that returns identifiers information
+     * @param setsProvider used to resolve set identifiers to set names
      * @return object implementing IdentifierProvider interface
      */
     @Bean
-    public IdentifierProvider identifierProvider() {
-        return new SearchApi();
+    public IdentifierProvider identifierProvider(SetsProvider setsProvider) {
+        IdentifierProvider identifierProvider;
+        try {
+            identifierProvider = (IdentifierProvider) Class.forName(identifierProviderClass).getConstructor().newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            LOG.error("Problem with instantiating identifier provider.", e);
+            throw new RuntimeException(e);
+        }
+        identifierProvider.setSetsProvider(setsProvider);
+        return identifierProvider;
     }
 
     /**
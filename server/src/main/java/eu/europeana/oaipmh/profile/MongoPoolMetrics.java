@@ -0,0 +1,177 @@
+package eu.europeana.oaipmh.profile;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool listener that publishes the state of a Mongo connection pool to Micrometer, so we can tell whether
+ * slow requests are caused by waiting for a connection or by slow queries:
+ * <ul>
+ *     <li><code>oaipmh.mongo.pool.size</code>: open connections</li>
+ *     <li><code>oaipmh.mongo.pool.checkedout</code>: connections in use</li>
+ *     <li><code>oaipmh.mongo.pool.waiting</code>: threads waiting for a connection</li>
+ *     <li><code>oaipmh.mongo.pool.created</code>: connections created</li>
+ *     <li><code>oaipmh.mongo.pool.wait</code>: time spent waiting for a connection</li>
+ *     <li><code>oaipmh.mongo.pool.checkout.failed</code>: failed check-outs by reason, <code>timeout</code> means the
+ *     pool was exhausted</li>
+ * </ul>
+ * All meters are tagged with the name of the client. The listener is called by the threads using the pool, so it
+ * only uses atomic counters. With multiple servers (replica set) the numbers are the totals of all pools.
+ */
+public class MongoPoolMetrics implements ConnectionPoolListener {
+
+    public static final String POOL_SIZE = "oaipmh.mongo.pool.size";
+    public static final String CHECKED_OUT = "oaipmh.mongo.pool.checkedout";
+    public static final String WAITING = "oaipmh.mongo.pool.waiting";
+    public static final String CREATED = "oaipmh.mongo.pool.created";
+    public static final String WAIT_TIME = "oaipmh.mongo.pool.wait";
+    public static final String CHECK_OUT_FAILED = "oaipmh.mongo.pool.checkout.failed";
+
+    private static final Logger LOG = LogManager.getLogger(MongoPoolMetrics.class);
+
+    private static final String CLIENT_TAG = "client";
+    private static final String REASON_TAG = "reason";
+
+    private final String client;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Counter created;
+    private final Timer waitTime;
+    private final Map<ConnectionCheckOutFailedEvent.Reason, Counter> failures = new EnumMap<>(ConnectionCheckOutFailedEvent.Reason.class);
+    // the sync driver checks out connections in the thread that executes the query
+    private final ThreadLocal<Long> checkOutStart = new ThreadLocal<>();
+
+    /**
+     * Create a new listener and register its meters
+     * @param client name of the Mongo client, used as tag value
+     */
+    public MongoPoolMetrics(String client) {
+        this.client = client;
+        Gauge.builder(POOL_SIZE, size, AtomicInteger::get)
+                .description("Open connections of the Mongo connection pool")
+                .tag(CLIENT_TAG, client)
+                .register(Metrics.globalRegistry);
+        Gauge.builder(CHECKED_OUT, checkedOut, AtomicInteger::get)
+                .description("Connections of the Mongo connection pool that are in use")
+                .tag(CLIENT_TAG, client)
+                .register(Metrics.globalRegistry);
+        Gauge.builder(WAITING, waiting, AtomicInteger::get)
+                .description("Threads waiting for a connection of the Mongo connection pool")
+                .tag(CLIENT_TAG, client)
+                .register(Metrics.globalRegistry);
+        this.created = Counter.builder(CREATED)
+                .description("Connections created by the Mongo connection pool")
+                .tag(CLIENT_TAG, client)
+                .register(Metrics.globalRegistry);
+        this.waitTime = Timer.builder(WAIT_TIME)
+                .description("Time spent waiting for a connection of the Mongo connection pool")
+                .tag(CLIENT_TAG, client)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+        for (ConnectionCheckOutFailedEvent.Reason reason : ConnectionCheckOutFailedEvent.Reason.values()) {
+            failures.put(reason, Counter.builder(CHECK_OUT_FAILED)
+                    .description("Failed check-outs of the Mongo connection pool, timeout means the pool was exhausted")
+                    .tag(CLIENT_TAG, client)
+                    .tag(REASON_TAG, reason.name().toLowerCase(Locale.ROOT))
+                    .register(Metrics.globalRegistry));
+        }
+    }
+
+    @Override
+    public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+        LOG.debug("Connection pool for {} created {}", client, event);
+    }
+
+    @Override
+    public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+        LOG.debug("Connection pool for {} closed {}", client, event);
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+        checkOutStart.set(System.nanoTime());
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOut.incrementAndGet();
+        endCheckOut();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        failures.get(event.getReason()).increment();
+        endCheckOut();
+        if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+            LOG.warn("Mongo connection pool for {} exhausted, {} connections in use and {} threads waiting",
+                    client, checkedOut.get(), waiting.get());
+        }
+    }
+
+    private void endCheckOut() {
+        Long start = checkOutStart.get();
+        if (start != null) {
+            waiting.decrementAndGet();
+            waitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            checkOutStart.remove();
+        }
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        size.incrementAndGet();
+        created.increment();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        size.decrementAndGet();
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return number of connections in use
+     */
+    public int getCheckedOut() {
+        return checkedOut.get();
+    }
+
+    /**
+     * @return number of threads waiting for a connection
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+}
@@ -0,0 +1,166 @@
+package eu.europeana.oaipmh.profile;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer timers for the stages of the request pipeline (Solr query, Mongo lookup, count and fetch, technical
+ * metadata injection, RDF and EDM conversion and XML serialization) and the number of bytes written per response. All meters are tagged
+ * with the OAI-PMH verb of the request and publish a percentile histogram, so they can be aggregated in Prometheus.
+ *
+ * Unlike the {@link SimpleProfiler} these metrics are always enabled. The verb of the request being processed is kept
+ * per thread; code that hands work over to other threads should pass it on with {@link #setVerb(String)}.
+ */
+public final class PipelineMetrics {
+
+    public static final String STAGE_TIMER = "oaipmh.pipeline.stage";
+    public static final String RESPONSE_SIZE = "oaipmh.response.size";
+
+    private static final String STAGE_TAG = "stage";
+    private static final String VERB_TAG = "verb";
+    private static final String NO_VERB = "none";
+    private static final String UNKNOWN_VERB = "unknown";
+
+    private static final Set<String> VERBS = new HashSet<>(Arrays.asList("Identify", "GetRecord", "ListIdentifiers",
+            "ListRecords", "ListMetadataFormats", "ListSets"));
+
+    private static final ThreadLocal<String> VERB = new ThreadLocal<>();
+
+    private static final Map<Stage, ConcurrentMap<String, Timer>> TIMERS = new EnumMap<>(Stage.class);
+    private static final ConcurrentMap<String, DistributionSummary> RESPONSE_SIZES = new ConcurrentHashMap<>();
+
+    static {
+        for (Stage stage : Stage.values()) {
+            TIMERS.put(stage, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Stages of the request pipeline
+     */
+    public enum Stage {
+        SOLR_QUERY("solr_query"),
+        // queries that only return a few fields of records (existence checks, record summaries, identifiers)
+        MONGO_LOOKUP("mongo_lookup"),
+        MONGO_COUNT("mongo_count"),
+        // queries that return complete records
+        MONGO_FETCH("mongo_fetch"),
+        TECHNICAL_METADATA("technical_metadata"),
+        TO_RDF("to_rdf"),
+        TO_EDM("to_edm"),
+        SERIALIZATION("serialization");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    /**
+     * Work that is timed as a stage
+     * @param <T> type of the result
+     * @param <E> type of the exception that may be thrown
+     */
+    @FunctionalInterface
+    public interface StageCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private PipelineMetrics() {}
+
+    /**
+     * Set the verb of the request that is processed by the current thread
+     * @param verb OAI-PMH verb, may be null
+     * @return the verb that was set before
+     */
+    public static String setVerb(String verb) {
+        String previous = VERB.get();
+        if (verb == null) {
+            VERB.remove();
+        } else {
+            VERB.set(verb);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the verb of the request that is processed by the current thread, null if unknown
+     */
+    public static String getVerb() {
+        return VERB.get();
+    }
+
+    /**
+     * Execute the call and record its duration (also when it fails) as the provided stage
+     * @param stage stage of the pipeline
+     * @param call work to execute
+     * @return the result of the call
+     * @throws E exception thrown by the call
+     */
+    public static <T, E extends Exception> T time(Stage stage, StageCall<T, E> call) throws E {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            getTimer(stage, VERB.get()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Record the duration of a stage that was measured by the caller
+     * @param stage stage of the pipeline
+     * @param verb verb of the request, if null the verb of the current thread is used
+     * @param nanos duration in nanoseconds
+     */
+    public static void record(Stage stage, String verb, long nanos) {
+        getTimer(stage, verb == null ? VERB.get() : verb).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the size of a (serialized, uncompressed) response
+     * @param verb verb of the request
+     * @param bytes number of bytes written
+     */
+    public static void recordResponseSize(String verb, long bytes) {
+        RESPONSE_SIZES.computeIfAbsent(normalize(verb), v -> DistributionSummary.builder(RESPONSE_SIZE)
+                .description("Size of OAI-PMH responses before compression")
+                .baseUnit("bytes")
+                .tag(VERB_TAG, v)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry)).record(bytes);
+    }
+
+    private static Timer getTimer(Stage stage, String verb) {
+        return TIMERS.get(stage).computeIfAbsent(normalize(verb), v -> Timer.builder(STAGE_TIMER)
+                .description("Time spent in a stage of the OAI-PMH request pipeline")
+                .tag(STAGE_TAG, stage.getTag())
+                .tag(VERB_TAG, v)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+    }
+
+    /**
+     * Only the OAI-PMH verbs are used as tag values, to prevent invalid requests from creating new meters
+     */
+    private static String normalize(String verb) {
+        if (verb == null) {
+            return NO_VERB;
+        }
+        return VERBS.contains(verb) ? verb : UNKNOWN_VERB;
+    }
+}
@@ -0,0 +1,60 @@
+package eu.europeana.oaipmh.profile;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Counts how often this server repeats the filter queries it sends to Solr. Every cacheable filter query is looked up
+ * in a local LRU list of the last 512 filters sent (the default size of the Solr filterCache), a filter that was sent
+ * recently is counted as repeated, otherwise as new. Filters with cache=false are counted separately.
+ * This is a client-side count, not the Solr filterCache hit ratio: that also depends on other clients, commits and the
+ * Solr configuration and is only reported by Solr itself. The counters show how repetitive (and so how cache-friendly)
+ * our own queries are, for example after changing ${solrDateRangeRounding}.
+ */
+public final class SolrFilterMetrics {
+
+    public static final String FILTER_REPETITIONS = "oaipmh.solr.client.filter.repetitions";
+
+    private static final String REPETITION_TAG = "repetition";
+    private static final String NOT_CACHED = "cache=false";
+    private static final int FILTER_CACHE_SIZE = 512;
+
+    private static final Cache<String, Boolean> RECENT_FILTERS = Caffeine.newBuilder()
+            .maximumSize(FILTER_CACHE_SIZE)
+            .build();
+
+    private static final Counter REPEATED = counter("repeated");
+    private static final Counter NEW = counter("new");
+    private static final Counter UNCACHED = counter("uncached");
+
+    private SolrFilterMetrics() {}
+
+    private static Counter counter(String repetition) {
+        return Counter.builder(FILTER_REPETITIONS)
+                .description("Filter queries sent to Solr by this server, by whether the same filter was sent recently "
+                        + "(client-side count, not the Solr filterCache hit ratio)")
+                .tag(REPETITION_TAG, repetition)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Record the filter queries of a Solr query
+     * @param filterQueries filter queries, may be null
+     */
+    public static void record(String[] filterQueries) {
+        if (filterQueries == null) {
+            return;
+        }
+        for (String filterQuery : filterQueries) {
+            if (filterQuery.startsWith("{!") && filterQuery.contains(NOT_CACHED)) {
+                UNCACHED.increment();
+            } else if (RECENT_FILTERS.asMap().putIfAbsent(filterQuery, Boolean.TRUE) == null) {
+                NEW.increment();
+            } else {
+                REPEATED.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.profile.PipelineMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent calls to a backend and adapts the limit to the latency of the backend, so we don't
+ * have to guess the best parallelism per cluster. It uses a gradient algorithm (like Netflix' Gradient2 limit): the
+ * short-term average latency is compared to the long-term average. As long as they're about the same the backend
+ * isn't queueing, so the limit grows a bit (by the square root of the limit). When the short-term latency goes up the
+ * limit is reduced proportionally, and when a call fails the limit is reduced by 10% (AIMD back-off).
+ *
+ * The limit is only raised when it's actually used, otherwise a quiet period would end with a very high limit.
+ * The current limit, number of calls in flight and the short and long-term latency are published to Micrometer
+ * (<code>oaipmh.limiter.*</code>, tagged with the name of the limiter).
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public static final String LIMIT = "oaipmh.limiter.limit";
+    public static final String IN_FLIGHT = "oaipmh.limiter.inflight";
+    public static final String RTT = "oaipmh.limiter.rtt";
+    public static final String BASELINE_RTT = "oaipmh.limiter.rtt.baseline";
+
+    private static final Logger LOG = LogManager.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    // latency may go up this much before the limit is reduced
+    private static final double TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    // weights of a new sample in the short (about 10 samples) and long-term (about 600 samples) average latency
+    private static final double SHORT_RTT_WEIGHT = 2.0 / (10 + 1);
+    private static final double LONG_RTT_WEIGHT = 2.0 / (600 + 1);
+    // when the long-term latency is more than twice the short-term latency (after a period of overload) it's reduced
+    private static final double LONG_RTT_DRIFT = 2.0;
+    private static final double LONG_RTT_DECAY = 0.95;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    // average latencies in nanoseconds, 0 when there are no samples yet
+    private double shortRtt;
+    private double longRtt;
+
+    private AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long maxWaitMs) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    }
+
+    /**
+     * Create a new limiter and publish its metrics
+     * @param name name of the limiter, used as tag of the metrics
+     * @param initialLimit limit to start with
+     * @param minLimit the limit is never reduced below this
+     * @param maxLimit the limit is never raised above this (e.g. the size of the connection pool)
+     * @param maxWaitMs maximum time (in ms) a call waits until it's allowed to run
+     * @return new limiter
+     */
+    public static AdaptiveConcurrencyLimiter create(String name, int initialLimit, int minLimit, int maxLimit, long maxWaitMs) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(name, initialLimit, minLimit, maxLimit, maxWaitMs);
+        limiter.registerMetrics();
+        LOG.info("Adaptive concurrency limit for {}: initial {}, min {}, max {}", name, limiter.limit, limiter.minLimit, limiter.maxLimit);
+        return limiter;
+    }
+
+    /**
+     * Registers the gauges after construction, so the limiter isn't published before it's completely initialized
+     */
+    private void registerMetrics() {
+        Gauge.builder(LIMIT, this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current concurrency limit")
+                .tag("limiter", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder(IN_FLIGHT, this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Number of calls in flight")
+                .tag("limiter", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder(RTT, this, l -> l.getRtt(false))
+                .description("Short-term average latency of calls")
+                .tag("limiter", name)
+                .baseUnit("milliseconds")
+                .register(Metrics.globalRegistry);
+        Gauge.builder(BASELINE_RTT, this, l -> l.getRtt(true))
+                .description("Long-term average latency of calls, used as baseline")
+                .tag("limiter", name)
+                .baseUnit("milliseconds")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Execute the call when the limit allows it and use its latency to update the limit
+     * @param call call to the backend
+     * @return result of the call
+     * @throws E thrown by the call
+     * @throws LimitExceededException when the call could not be started within the maximum waiting time
+     */
+    public <T, E extends Exception> T execute(PipelineMetrics.StageCall<T, E> call) throws E {
+        int inFlightAtStart = acquire();
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            T result = call.call();
+            dropped = false;
+            return result;
+        } finally {
+            release(System.nanoTime() - start, inFlightAtStart, dropped);
+        }
+    }
+
+    private int acquire() {
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    LOG.warn("No {} call possible within {} ms, limit is {}", name, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos), (int) limit);
+                    throw new LimitExceededException(name);
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+            return ++inFlight;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LimitExceededException(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long rttNanos, int inFlightAtStart, boolean dropped) {
+        lock.lock();
+        try {
+            inFlight--;
+            onSample(rttNanos, inFlightAtStart, dropped);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update the limit with the latency of a call
+     * @param rttNanos latency of the call
+     * @param inFlightAtStart number of calls in flight when the call started (including the call itself)
+     * @param dropped true if the call failed
+     */
+    void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+        lock.lock();
+        try {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                return;
+            }
+            shortRtt = shortRtt == 0 ? rttNanos : shortRtt + (rttNanos - shortRtt) * SHORT_RTT_WEIGHT;
+            longRtt = longRtt == 0 ? rttNanos : longRtt + (rttNanos - longRtt) * LONG_RTT_WEIGHT;
+            if (longRtt / shortRtt > LONG_RTT_DRIFT) {
+                longRtt *= LONG_RTT_DECAY;
+            }
+            // the limit isn't used, so the latency tells us nothing about a higher limit
+            if (inFlightAtStart < limit / 2) {
+                return;
+            }
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return current concurrency limit
+     */
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double getRtt(boolean baseline) {
+        lock.lock();
+        try {
+            return (baseline ? longRtt : shortRtt) / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Thrown when a call is not made because the limit didn't allow it within the maximum waiting time
+     */
+    public static class LimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = -5319248170436624541L;
+
+        /**
+         * @param name name of the limiter
+         */
+        public LimitExceededException(String name) {
+            super("Concurrency limit for " + name + " is reached, server is too busy");
+        }
+    }
+}
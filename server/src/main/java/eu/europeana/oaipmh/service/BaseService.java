@@ -3,21 +3,36 @@ package eu.europeana.oaipmh.service;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import com.fasterxml.jackson.dataformat.xml.JacksonXmlModule;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import eu.europeana.oaipmh.model.Header;
+import eu.europeana.oaipmh.model.Record;
+import eu.europeana.oaipmh.model.response.ListRecordsResponse;
 import eu.europeana.oaipmh.model.response.OAIResponse;
+import eu.europeana.oaipmh.profile.PipelineMetrics;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
 import eu.europeana.oaipmh.service.exception.SerializationException;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 
 public class BaseService {
 
-    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final String RECORD_ELEMENT = "record";
+    // serialized in place of the records of a streamed ListRecords response, to find where the records should go
+    private static final Record PLACEHOLDER_RECORD = new Record(new Header("placeholder", null, (List<String>) null), null);
 
     // create a single XmlMapper for efficiency purposes (see https://github.com/FasterXML/jackson-docs/wiki/Presentation:-Jackson-Performance)
     private static final XmlMapper xmlMapper;
@@ -44,13 +59,149 @@ public class BaseService {
     }
 
     protected String serialize(OAIResponse response) throws SerializationException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serialize(response, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes the response (including the xml declaration) directly to the provided output stream, so the envelope,
+     * each record and the resumption token are written out as soon as they are serialized instead of being collected
+     * in memory first. The output stream is flushed, but not closed.
+     *
+     * @param response response to serialize
+     * @param outputStream stream to write the response to (e.g. the servlet output stream)
+     * @throws SerializationException when there is a problem serializing or writing the response
+     */
+    public void serialize(OAIResponse response, OutputStream outputStream) throws SerializationException {
+        String verb = response.getRequest() == null ? null : response.getRequest().getVerb();
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        long start = System.nanoTime();
         try {
-            OutputStream outputStream = new ByteArrayOutputStream();
-             xmlMapper.writeValue(outputStream, response);
-             return XML_DECLARATION + outputStream;
+            countingStream.write(XML_DECLARATION);
+            xmlMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(countingStream, response);
+            countingStream.flush();
         }
         catch (IOException e) {
             throw new SerializationException("Error serializing data: " + e.getMessage(), e);
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.SERIALIZATION, verb, System.nanoTime() - start);
+            PipelineMetrics.recordResponseSize(verb, countingStream.getCount());
+        }
+    }
+
+    /**
+     * Serializes a ListRecords response while its records are retrieved. The envelope (xml declaration, request and
+     * ListRecords start tag) is written when the first record is available, every record is written and flushed as soon
+     * as the record provider returns it, and the resumption token and end tags are written after the last record. So
+     * only the records the provider retrieves together are kept in memory, not the whole page.
+     * Note that when retrieving a record fails after the first record was written, the response can only be aborted.
+     *
+     * @param response response to serialize, the records of its ListRecords are ignored
+     * @param recordProvider provider to retrieve the records with
+     * @param identifiers identifiers of the records to retrieve
+     * @param outputStream stream to write the response to (e.g. the servlet output stream)
+     * @return false if the record provider didn't return any record, in that case nothing was written
+     * @throws OaiPmhException when there is a problem retrieving the records or serializing the response
+     */
+    protected boolean serialize(ListRecordsResponse response, RecordProvider recordProvider, List<Header> identifiers,
+                                OutputStream outputStream) throws OaiPmhException {
+        String verb = response.getRequest() == null ? null : response.getRequest().getVerb();
+        ObjectWriter recordWriter = xmlMapper.writer().withRootName(RECORD_ELEMENT).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        byte[] envelope;
+        byte[] placeholder;
+        long start = System.nanoTime();
+        try {
+            ByteArrayOutputStream envelopeStream = new ByteArrayOutputStream();
+            envelopeStream.write(XML_DECLARATION);
+            response.getListRecords().setRecords(Collections.singletonList(PLACEHOLDER_RECORD));
+            xmlMapper.writer().writeValue(envelopeStream, response);
+            envelope = envelopeStream.toByteArray();
+            placeholder = recordWriter.writeValueAsBytes(PLACEHOLDER_RECORD);
+        } catch (IOException e) {
+            throw new SerializationException("Error serializing data: " + e.getMessage(), e);
+        } finally {
+            response.getListRecords().setRecords(Collections.emptyList());
+        }
+        int recordsStart = PrerenderedResponse.indexOf(envelope, placeholder, 0);
+        if (recordsStart < 0) {
+            throw new SerializationException("Error serializing data: no position for the records found", null);
+        }
+        long serializationTime = System.nanoTime() - start;
+
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        long[] recordsTime = new long[1];
+        recordProvider.listRecords(identifiers, record -> {
+            long recordStart = System.nanoTime();
+            try {
+                if (countingStream.getCount() == 0) {
+                    countingStream.write(envelope, 0, recordsStart);
+                }
+                recordWriter.writeValue(countingStream, record);
+                countingStream.flush();
+            } catch (IOException e) {
+                throw new SerializationException("Error writing data: " + e.getMessage(), e);
+            } finally {
+                recordsTime[0] += System.nanoTime() - recordStart;
+            }
+        });
+        if (countingStream.getCount() == 0) {
+            return false;
+        }
+
+        start = System.nanoTime();
+        try {
+            int recordsEnd = recordsStart + placeholder.length;
+            countingStream.write(envelope, recordsEnd, envelope.length - recordsEnd);
+            countingStream.flush();
+        } catch (IOException e) {
+            throw new SerializationException("Error writing data: " + e.getMessage(), e);
+        } finally {
+            serializationTime += System.nanoTime() - start + recordsTime[0];
+            PipelineMetrics.record(PipelineMetrics.Stage.SERIALIZATION, verb, serializationTime);
+            PipelineMetrics.recordResponseSize(verb, countingStream.getCount());
+        }
+        return true;
+    }
+
+    /**
+     * Writes a (serialized) response to an output stream
+     */
+    @FunctionalInterface
+    public interface ResponseWriter {
+
+        /**
+         * @param outputStream stream to write the response to, it's flushed but not closed
+         * @throws OaiPmhException when there is a problem retrieving or serializing the response
+         */
+        void writeTo(OutputStream outputStream) throws OaiPmhException;
+    }
+
+    /**
+     * Keeps track of the number of bytes written to the wrapped stream
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
         }
     }
 }
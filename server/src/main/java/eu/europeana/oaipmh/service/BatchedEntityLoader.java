@@ -0,0 +1,204 @@
+package eu.europeana.oaipmh.service;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.model.Projections;
+import dev.morphia.Datastore;
+import dev.morphia.mapping.codec.pojo.EntityModel;
+import dev.morphia.mapping.codec.pojo.PropertyModel;
+import dev.morphia.query.FindOptions;
+import dev.morphia.query.filters.Filters;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads Morphia entities together with the entities they reference. Morphia resolves the <code>@Reference</code>
+ * fields of every loaded entity separately, so loading a page of records with their proxies, agents, places,
+ * concepts, aggregations etc. still costs a round-trip per record per reference field. This loader instead loads the
+ * entities without their references, then loads all entities of one referenced type with a single query and sets
+ * them on the entities. The same is done for the references of the referenced entities (e.g. the web resources of
+ * the aggregations), so the number of queries depends on the number of referenced types, not on the number of
+ * entities.
+ *
+ * The reference fields are found with the Morphia mapping, so the loader doesn't depend on the entity classes.
+ * References that point to entities that don't exist are left out, references in maps are left to Morphia.
+ */
+public class BatchedEntityLoader {
+
+    private static final Logger LOG = LogManager.getLogger(BatchedEntityLoader.class);
+
+    private static final String ID_FIELD = "_id";
+    private static final String DBREF_ID_FIELD = "$id";
+
+    // protection against reference cycles, references below this depth are resolved by Morphia
+    private static final int MAX_DEPTH = 4;
+
+    private final Datastore datastore;
+
+    /**
+     * Create a new loader
+     *
+     * @param datastore Morphia datastore used to load the entities
+     */
+    public BatchedEntityLoader(Datastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * Load all entities of which the field has one of the provided values, including the entities they reference
+     *
+     * @param type entity class
+     * @param field name of the field to filter on
+     * @param values values to look for
+     * @param <T> entity type
+     * @return list of found entities, in no particular order
+     */
+    public <T> List<T> find(Class<T> type, String field, Collection<?> values) {
+        return find(type, field, values, 0);
+    }
+
+    private <T> List<T> find(Class<T> type, String field, Collection<?> values, int depth) {
+        if (values.isEmpty()) {
+            return new ArrayList<>();
+        }
+        EntityModel model = datastore.getMapper().getEntityModel(type);
+        List<PropertyModel> references = getReferences(model);
+        if (references.isEmpty() || depth >= MAX_DEPTH) {
+            return findEntities(type, field, values, Collections.emptyList());
+        }
+
+        List<T> entities = findEntities(type, field, values, references);
+        if (entities.isEmpty()) {
+            return entities;
+        }
+        Map<Object, Document> referenceDocuments = new HashMap<>(entities.size());
+        for (Document document : findReferenceDocuments(model, field, values, references)) {
+            referenceDocuments.put(document.get(ID_FIELD), document);
+        }
+
+        for (PropertyModel reference : references) {
+            Set<Object> ids = new LinkedHashSet<>();
+            for (Document document : referenceDocuments.values()) {
+                ids.addAll(getReferencedIds(document.get(reference.getMappedName())));
+            }
+            Map<Object, Object> referenced = new HashMap<>(ids.size());
+            for (Object entity : find(reference.getNormalizedType(), ID_FIELD, ids, depth + 1)) {
+                referenced.put(getId(entity), entity);
+            }
+            LOG.debug("Loaded {} of {} entities referenced by {}.{}", referenced.size(), ids.size(),
+                    type.getSimpleName(), reference.getName());
+
+            for (T entity : entities) {
+                Document document = referenceDocuments.get(getId(entity));
+                List<Object> referencedEntities = new ArrayList<>();
+                if (document != null) {
+                    for (Object id : getReferencedIds(document.get(reference.getMappedName()))) {
+                        Object referencedEntity = referenced.get(id);
+                        if (referencedEntity != null) {
+                            referencedEntities.add(referencedEntity);
+                        }
+                    }
+                }
+                reference.setValue(entity, toPropertyValue(reference, referencedEntities));
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Load the entities, without the provided reference fields
+     */
+    <T> List<T> findEntities(Class<T> type, String field, Collection<?> values, List<PropertyModel> excluded) {
+        FindOptions options = new FindOptions();
+        if (!excluded.isEmpty()) {
+            options = options.projection().exclude(getNames(excluded, false));
+        }
+        return datastore.find(type)
+                .filter(Filters.in(field, values))
+                .iterator(options)
+                .toList();
+    }
+
+    /**
+     * Load only the ids and the provided reference fields of the entities, as they are stored in the database
+     */
+    List<Document> findReferenceDocuments(EntityModel model, String field, Collection<?> values, List<PropertyModel> references) {
+        PropertyModel property = model.getProperty(field);
+        String mappedField = property == null ? field : property.getMappedName();
+        return datastore.getDatabase().getCollection(model.getCollectionName())
+                .find(new Document(mappedField, new Document("$in", values)))
+                .projection(Projections.include(getNames(references, true)))
+                .into(new ArrayList<>());
+    }
+
+    private static List<PropertyModel> getReferences(EntityModel model) {
+        List<PropertyModel> references = new ArrayList<>();
+        for (PropertyModel property : model.getProperties()) {
+            if (property.isReference() && !property.isMap()) {
+                references.add(property);
+            }
+        }
+        return references;
+    }
+
+    private static String[] getNames(List<PropertyModel> properties, boolean mapped) {
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = mapped ? properties.get(i).getMappedName() : properties.get(i).getName();
+        }
+        return names;
+    }
+
+    private Object getId(Object entity) {
+        return datastore.getMapper().getEntityModel(entity.getClass()).getIdProperty().getValue(entity);
+    }
+
+    /**
+     * References are stored as DBRef, as a document with $ref and $id or (idOnly) as the id itself
+     */
+    private static List<Object> getReferencedIds(Object value) {
+        List<Object> ids = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                ids.addAll(getReferencedIds(item));
+            }
+        } else if (value instanceof DBRef) {
+            ids.add(((DBRef) value).getId());
+        } else if (value instanceof Document) {
+            Object id = ((Document) value).get(DBREF_ID_FIELD);
+            if (id != null) {
+                ids.add(id);
+            }
+        } else if (value != null) {
+            ids.add(value);
+        }
+        return ids;
+    }
+
+    private static Object toPropertyValue(PropertyModel reference, List<Object> entities) {
+        if (!reference.isMultipleValues()) {
+            return entities.isEmpty() ? null : entities.get(0);
+        }
+        if (reference.isArray()) {
+            Object array = Array.newInstance(reference.getNormalizedType(), entities.size());
+            for (int i = 0; i < entities.size(); i++) {
+                Array.set(array, i, entities.get(i));
+            }
+            return array;
+        }
+        if (reference.isSet()) {
+            return new LinkedHashSet<>(entities);
+        }
+        return entities;
+    }
+}
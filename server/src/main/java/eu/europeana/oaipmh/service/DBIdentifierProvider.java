@@ -0,0 +1,305 @@
+package eu.europeana.oaipmh.service;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import eu.europeana.metis.mongo.connection.MongoClientProvider;
+import eu.europeana.metis.utils.ExternalRequestUtil;
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
+import eu.europeana.oaipmh.model.Header;
+import eu.europeana.oaipmh.model.ListIdentifiers;
+import eu.europeana.oaipmh.model.ResumptionToken;
+import eu.europeana.oaipmh.profile.MongoPoolMetrics;
+import eu.europeana.oaipmh.profile.PipelineMetrics;
+import eu.europeana.oaipmh.profile.TrackTime;
+import eu.europeana.oaipmh.service.exception.BadResumptionToken;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import eu.europeana.oaipmh.service.exception.ServiceUnavailableException;
+import eu.europeana.oaipmh.util.CircuitBreaker;
+import eu.europeana.oaipmh.util.DateConverter;
+import eu.europeana.oaipmh.util.ResumptionTokenHelper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Retrieves identifiers directly from the Mongo record collection instead of from Solr. Identifiers are sorted on
+ * (timestampUpdated, about) and paged with a keyset cursor: the resumption token contains the timestamp and id of the
+ * last identifier of a page and the next page starts after it. This requires a compound index on
+ * {timestampUpdated: 1, about: 1}, which can be created on start-up with ${mongoIdentifierCreateIndex}.
+ *
+ * Sets are filtered on the exact set names when the {@link SetsProvider} can resolve them, otherwise on the set
+ * identifier prefix of europeanaCollectionName. Set-filtered requests need a compound index on
+ * {europeanaCollectionName: 1, timestampUpdated: 1, about: 1} (created together with the paging index), otherwise
+ * Mongo walks the paging index over all records to find the few of a selective set.
+ */
+public class DBIdentifierProvider extends BaseProvider implements IdentifierProvider {
+
+    private static final Logger LOG = LogManager.getLogger(DBIdentifierProvider.class);
+
+    private static final String RECORD_COLLECTION = "record";
+    private static final String ABOUT_FIELD = "about";
+    private static final String TIMESTAMP_UPDATED_FIELD = "timestampUpdated";
+    private static final String COLLECTION_NAME_FIELD = "europeanaCollectionName";
+
+    private static final Date DEFAULT_IDENTIFIER_TIMESTAMP = DateConverter.fromIsoDateTime("1970-01-01T00:00:00Z");
+
+    // separates the timestamp (in ms, or empty when the record has no timestamp) and the id in the keyset cursor
+    private static final char CURSOR_SEPARATOR = ':';
+
+    @Value("${mongodb.connectionUrl}")
+    private String connectionUrl;
+
+    @Value("${mongodb.record.dbname}")
+    private String recordDBName;
+
+    @Value("${resumptionTokenTTL}")
+    private int resumptionTokenTTL;
+
+    @Value("#{T(eu.europeana.oaipmh.util.DateConverter).fromIsoDateTime('${defaultIdentifierTimestamp}')}")
+    private Date defaultIdentifierTimestamp;
+
+    // create the indexes used for paging (with and without set filter) when they don't exist yet, note that building
+    // them on a large collection takes a while
+    @Value("${mongoIdentifierCreateIndex:false}")
+    private boolean createIndex;
+
+    private MongoClient mongoClient;
+    private MongoCollection<Document> records;
+
+    // resolves set identifiers to the full set names, may be null
+    private SetsProvider setsProvider;
+
+    @PostConstruct
+    private void init() {
+        if (defaultIdentifierTimestamp == null) {
+            defaultIdentifierTimestamp = DEFAULT_IDENTIFIER_TIMESTAMP;
+        }
+        MongoPoolMetrics poolMetrics = new MongoPoolMetrics("identifiers");
+        // start from the metis defaults (read preference, retry writes, idle time), like MongoClientProvider does
+        this.mongoClient = MongoClients.create(MongoClientProvider.getDefaultMongoClientSettingsBuilder()
+                .applyConnectionString(new ConnectionString(connectionUrl))
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(poolMetrics))
+                .build());
+        this.records = mongoClient.getDatabase(recordDBName).getCollection(RECORD_COLLECTION);
+        LOG.info("Retrieving identifiers from mongo database {}", recordDBName);
+        if (createIndex) {
+            String index = records.createIndex(Indexes.ascending(TIMESTAMP_UPDATED_FIELD, ABOUT_FIELD),
+                    new IndexOptions().background(true));
+            LOG.info("Created index {} for paging identifiers", index);
+            String setIndex = records.createIndex(Indexes.ascending(COLLECTION_NAME_FIELD, TIMESTAMP_UPDATED_FIELD, ABOUT_FIELD),
+                    new IndexOptions().background(true));
+            LOG.info("Created index {} for paging identifiers of a set", setIndex);
+        }
+    }
+
+    /**
+     * @param setsProvider used to filter records on the exact names of a set instead of on the set identifier prefix
+     */
+    @Override
+    public void setSetsProvider(SetsProvider setsProvider) {
+        this.setsProvider = setsProvider;
+    }
+
+    @Override
+    public ListIdentifiers listIdentifiers(String metadataPrefix, Date from, Date until, String set, int pageSize) throws OaiPmhException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("List identifiers: from {}, until {}, set {}, metadataPrefix {}", from, until, set, metadataPrefix);
+        }
+        return listIdentifiers(metadataPrefix, from, until, set, 0, -1, null, pageSize);
+    }
+
+    @Override
+    public ListIdentifiers listIdentifiers(DecodedResumptionToken resumptionToken, int pageSize) throws OaiPmhException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("List identifiers: from {}, until {}, set {}, metadataPrefix {}", resumptionToken.getFrom(), resumptionToken.getUntil(), resumptionToken.getSet(), resumptionToken.getFormat());
+        }
+        return listIdentifiers(resumptionToken.getFormat(),
+                resumptionToken.getFrom(),
+                resumptionToken.getUntil(),
+                resumptionToken.getSet(),
+                resumptionToken.getCursor() + pageSize,
+                resumptionToken.getCompleteListSize(),
+                resumptionToken.getCursorMark(), pageSize);
+    }
+
+    /**
+     * Retrieves one page of identifiers. One identifier more than the page size is retrieved, so we know whether there
+     * is a next page without counting. The complete list size is only counted for the first page, after that it's
+     * taken from the resumption token.
+     *
+     * @param cursor number of identifiers retrieved before this page
+     * @param completeListSize complete list size from the resumption token, -1 for the first page
+     * @param cursorMark keyset cursor from the resumption token, null for the first page
+     */
+    private ListIdentifiers listIdentifiers(String metadataPrefix, Date from, Date until, String set, long cursor,
+                                            long completeListSize, String cursorMark, int pageSize) throws OaiPmhException {
+        Bson filter = createFilter(from, until, set);
+        Bson pageFilter = cursorMark == null ? filter : Filters.and(filter, createKeysetFilter(cursorMark));
+        List<Document> documents = findIdentifiers(pageFilter, pageSize + 1);
+
+        boolean hasNextPage = documents.size() > pageSize;
+        List<Header> headers = new ArrayList<>(Math.min(documents.size(), pageSize));
+        for (Document document : documents.subList(0, Math.min(documents.size(), pageSize))) {
+            headers.add(documentToHeader(document));
+        }
+        ListIdentifiers result = new ListIdentifiers();
+        result.setHeaders(headers);
+
+        if (hasNextPage) {
+            long listSize = completeListSize < 0 ? countIdentifiers(filter) : completeListSize;
+            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(from,
+                    until,
+                    set,
+                    metadataPrefix,
+                    new Date(System.currentTimeMillis() + resumptionTokenTTL),
+                    listSize,
+                    cursor,
+                    createCursorMark(documents.get(pageSize - 1)));
+            result.setResumptionToken(resumptionToken);
+        }
+        return result;
+    }
+
+    /**
+     * Create the filter for the request parameters
+     */
+    Bson createFilter(Date from, Date until, String set) {
+        List<Bson> filters = new ArrayList<>();
+        if (set != null && !set.isEmpty()) {
+            List<String> setNames = setsProvider == null ? null : setsProvider.getSetNames(set);
+            if (setNames == null || setNames.isEmpty()) {
+                // an anchored prefix regex can still use an index on europeanaCollectionName
+                filters.add(Filters.regex(COLLECTION_NAME_FIELD, "^" + Pattern.quote(set + "_")));
+            } else {
+                filters.add(Filters.in(COLLECTION_NAME_FIELD, setNames));
+            }
+        }
+        if (from != null) {
+            filters.add(Filters.gte(TIMESTAMP_UPDATED_FIELD, from));
+        }
+        if (until != null) {
+            filters.add(Filters.lte(TIMESTAMP_UPDATED_FIELD, until));
+        }
+        return filters.isEmpty() ? new Document() : Filters.and(filters);
+    }
+
+    /**
+     * Create the filter that selects all identifiers after the last identifier of the previous page. Records without
+     * timestamp are sorted before all others.
+     */
+    Bson createKeysetFilter(String cursorMark) throws BadResumptionToken {
+        int index = cursorMark.indexOf(CURSOR_SEPARATOR);
+        if (index < 0) {
+            throw new BadResumptionToken("Resumption token is not correct.");
+        }
+        String about = cursorMark.substring(index + 1);
+        if (index == 0) {
+            return Filters.or(Filters.ne(TIMESTAMP_UPDATED_FIELD, null),
+                    Filters.and(Filters.eq(TIMESTAMP_UPDATED_FIELD, null), Filters.gt(ABOUT_FIELD, about)));
+        }
+        Date timestamp;
+        try {
+            timestamp = new Date(Long.parseLong(cursorMark.substring(0, index)));
+        } catch (NumberFormatException e) {
+            throw new BadResumptionToken("Resumption token is not correct.");
+        }
+        return Filters.or(Filters.gt(TIMESTAMP_UPDATED_FIELD, timestamp),
+                Filters.and(Filters.eq(TIMESTAMP_UPDATED_FIELD, timestamp), Filters.gt(ABOUT_FIELD, about)));
+    }
+
+    private static String createCursorMark(Document last) {
+        Date timestamp = last.getDate(TIMESTAMP_UPDATED_FIELD);
+        return (timestamp == null ? "" : String.valueOf(timestamp.getTime())) + CURSOR_SEPARATOR + last.getString(ABOUT_FIELD);
+    }
+
+    /**
+     * Retrieves the id, timestamp and sets of the records matching the filter, sorted on timestamp and id
+     *
+     * @param filter filter to apply
+     * @param limit maximum number of records to retrieve
+     * @return documents with about, timestampUpdated and europeanaCollectionName fields
+     * @throws InternalServerErrorException when the identifiers could not be retrieved
+     */
+    @TrackTime
+    List<Document> findIdentifiers(Bson filter, int limit) throws InternalServerErrorException {
+        long start = System.nanoTime();
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () ->
+                records.find(filter)
+                        .projection(Projections.include(ABOUT_FIELD, TIMESTAMP_UPDATED_FIELD, COLLECTION_NAME_FIELD))
+                        .sort(Sorts.ascending(TIMESTAMP_UPDATED_FIELD, ABOUT_FIELD))
+                        .limit(limit)
+                        .into(new ArrayList<>(limit)));
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Identifiers could not be retrieved.", e);
+            throw new InternalServerErrorException("Identifiers could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_LOOKUP, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return number of records matching the filter
+     * @throws InternalServerErrorException when the records could not be counted
+     */
+    @TrackTime
+    long countIdentifiers(Bson filter) throws InternalServerErrorException {
+        long start = System.nanoTime();
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                if (filter instanceof Document && ((Document) filter).isEmpty()) {
+                    return records.estimatedDocumentCount();
+                }
+                return records.countDocuments(filter);
+            });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Identifiers could not be counted.", e);
+            throw new InternalServerErrorException("Identifiers could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_COUNT, null, System.nanoTime() - start);
+        }
+    }
+
+    private Header documentToHeader(Document document) {
+        List<String> sets = new ArrayList<>();
+        for (String setName : document.getList(COLLECTION_NAME_FIELD, String.class, Collections.emptyList())) {
+            sets.add(getSetIdentifier(setName));
+        }
+        Date timestampUpdated = document.getDate(TIMESTAMP_UPDATED_FIELD);
+        if (timestampUpdated == null) {
+            timestampUpdated = defaultIdentifierTimestamp;
+        }
+        return new Header(prepareFullId(document.getString(ABOUT_FIELD)), timestampUpdated, sets);
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        if (mongoClient != null) {
+            LOG.info("Shutting down Mongo connections...");
+            mongoClient.close();
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package eu.europeana.oaipmh.service;
 
+import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoClient;
-import com.mongodb.event.*;
+import com.mongodb.client.MongoClients;
+import dev.morphia.query.FindOptions;
+import dev.morphia.query.filters.Filters;
 import eu.europeana.corelib.definitions.edm.beans.FullBean;
+import eu.europeana.corelib.definitions.edm.entity.Aggregation;
+import eu.europeana.corelib.definitions.edm.entity.EuropeanaAggregation;
+import eu.europeana.corelib.definitions.edm.entity.WebResource;
+import eu.europeana.corelib.edm.model.metainfo.WebResourceMetaInfoImpl;
 import eu.europeana.corelib.edm.utils.EdmUtils;
 import eu.europeana.corelib.record.api.WebMetaInfo;
 import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
+import eu.europeana.corelib.solr.entity.WebResourceImpl;
 import eu.europeana.metis.mongo.connection.MongoClientProvider;
 import eu.europeana.metis.mongo.dao.RecordDao;
 import eu.europeana.metis.schema.jibx.DatasetName;
@@ -17,26 +25,68 @@ import eu.europeana.oaipmh.model.Header;
 import eu.europeana.oaipmh.model.ListRecords;
 import eu.europeana.oaipmh.model.RDFMetadata;
 import eu.europeana.oaipmh.model.Record;
+import eu.europeana.oaipmh.profile.MongoPoolMetrics;
+import eu.europeana.oaipmh.profile.PipelineMetrics;
 import eu.europeana.oaipmh.profile.TrackTime;
 import eu.europeana.oaipmh.service.exception.IdDoesNotExistException;
 import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import eu.europeana.oaipmh.service.exception.ServiceUnavailableException;
+import eu.europeana.oaipmh.util.CircuitBreaker;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.jibx.runtime.BindingDirectory;
+import org.jibx.runtime.IBindingFactory;
+import org.jibx.runtime.IMarshallingContext;
+import org.jibx.runtime.JiBXException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.DigestUtils;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-public class DBRecordProvider extends BaseProvider implements RecordProvider, ConnectionPoolListener {
+public class DBRecordProvider extends BaseProvider implements RecordProvider {
 
     private static final Logger LOG                   = LogManager.getLogger(DBRecordProvider.class);
     private static final String RECORD_WITH_ID        = "Record with id %s ";
+    private static final String SERVER_TOO_BUSY       = "Server is too busy, please try again later";
+    private static final String RECORD_COLLECTION     = "record";
+    private static final String ABOUT_FIELD           = "about";
+    private static final String TIMESTAMP_CREATED_FIELD = "timestampCreated";
+    private static final String TIMESTAMP_UPDATED_FIELD = "timestampUpdated";
+    private static final String COLLECTION_NAME_FIELD = "europeanaCollectionName";
+    private static final String AGGREGATIONS_FIELD    = "aggregations";
+    private static final String EUROPEANA_AGGREGATION_FIELD = "europeanaAggregation";
+    private static final String ID_FIELD              = "_id";
     private static final int    THREADS_THRESHOLD     = 10;
     private static final int    MAX_THREADS_THRESHOLD = 20;
+    private static final String EXECUTOR_MODE_VIRTUAL = "virtual";
+    // same indentation as used by EdmUtils.toEDM, so we produce identical output
+    private static final int    EDM_INDENT            = 2;
+    private static final int    EDM_BUFFER_SIZE       = 16 * 1024;
+    // default maximum size of the Mongo connection pool when not specified in the connection url
+    private static final int    DEFAULT_MONGO_POOL_SIZE = 100;
+    // records updated shortly before a refresh of the record id filter started may not be visible yet, so we look back a bit
+    private static final long   RECORD_ID_FILTER_MARGIN_MS = 60_000;
+    private static final int    RECORD_ID_BATCH_SIZE  = 10_000;
 
     @Value("${mongodb.connectionUrl}")
     private String connectionUrl;
@@ -47,6 +97,16 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
     @Value("${enhanceWithTechnicalMetadata:true}")
     private boolean enhanceWithTechnicalMetadata;
 
+    // when enabled (and technical metadata is injected) the version of a record used for conditional GetRecord
+    // requests also covers the technical metadata. This costs 2 extra queries per request (more with web resources)
+    @Value("${conditionalGetRecordTechnicalMetadata:false}")
+    private boolean conditionalGetRecordTechnicalMetadata;
+
+    // when enabled ListRecords retrieves the technical metadata of all records of a page with one query, instead of
+    // a query per record
+    @Value("${technicalMetadataPerPage:false}")
+    private boolean technicalMetadataPerPage;
+
     @Value("${expandWithFullText:false}")
     private boolean expandWithFullText;
 
@@ -59,24 +119,122 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
     @Value("${maxThreadsCount:20}")
     private int maxThreadsCount;
 
-    // for some reason we always get 2 connections directly after start-up that are not registered by the ConnectionPoolListener
-    private int nrConnections = 2;
+    // fixed (pool of threadsCount platform threads) or virtual (a virtual thread per record)
+    @Value("${executorMode:fixed}")
+    private String executorMode;
+
+    // maximum size of the rendered EDM cache in MB, 0 disables the cache
+    @Value("${edmCacheSizeMB:0}")
+    private long edmCacheSizeMB;
+
+    // time (in ms) after which cached EDM expires, changes of the technical metadata don't update the record timestamp
+    @Value("${edmCacheExpireAfterWrite:86400000}")
+    private long edmCacheExpireAfterWrite;
+
+    // number of records that a streamed ListRecords response retrieves together, 0 retrieves the whole page at once
+    @Value("${streamRecordsChunkSize:10}")
+    private int streamRecordsChunkSize;
+
+    // when enabled ListRecords injects the technical metadata (I/O) in the thread pool and converts the records to EDM
+    // (CPU) in a separate conversion pool, instead of doing both in the same task
+    @Value("${conversionPipeline:false}")
+    private boolean conversionPipeline;
+
+    // number of threads of the conversion pool, 0 uses the number of available processors
+    @Value("${conversionThreadsCount:0}")
+    private int conversionThreadsCount;
+
+    // maximum number of records waiting to be converted, when the queue is full records are converted by the I/O thread
+    @Value("${conversionQueueSize:100}")
+    private int conversionQueueSize;
+
+    // when enabled the number of concurrent record fetches from Mongo is limited by a limit that adapts to the latency of
+    // Mongo, starting at the initial limit and staying between the minimum and maximum (0 = size of the connection pool)
+    @Value("${adaptiveConcurrency:false}")
+    private boolean adaptiveConcurrency;
+
+    @Value("${adaptiveConcurrencyInitialLimit:20}")
+    private int adaptiveConcurrencyInitialLimit;
+
+    @Value("${adaptiveConcurrencyMinLimit:4}")
+    private int adaptiveConcurrencyMinLimit;
+
+    @Value("${adaptiveConcurrencyMaxLimit:0}")
+    private int adaptiveConcurrencyMaxLimit;
+
+    // maximum time (in ms) a record fetch waits for the limit before the request fails
+    @Value("${adaptiveConcurrencyMaxWait:30000}")
+    private long adaptiveConcurrencyMaxWait;
+
+    // maximum time (in µs) a GetRecord request waits for other GetRecord requests so their records are retrieved with
+    // one query, 0 retrieves every record separately
+    @Value("${getRecordBatchWindowMicros:0}")
+    private long getRecordBatchWindowMicros;
+
+    // maximum number of records retrieved with one query, a full batch is retrieved without waiting
+    @Value("${getRecordBatchSize:64}")
+    private int getRecordBatchSize;
+
+    // when enabled a bloom filter of all record ids is kept in memory, so requests for records that don't exist are
+    // answered with an existence query instead of retrieving the record
+    @Value("${recordIdFilter:false}")
+    private boolean recordIdFilterEnabled;
+
+    // number of records the filter is sized for, with more records the false positive rate goes up
+    @Value("${recordIdFilterExpectedRecords:100000000}")
+    private long recordIdFilterExpectedRecords;
+
+    @Value("${recordIdFilterFalsePositiveRate:0.01}")
+    private double recordIdFilterFalsePositiveRate;
+
+    // interval (in ms) in which records added to the database are added to the filter. Records that are added to the
+    // database are reported as not existing until then
+    @Value("${recordIdFilterRefreshInterval:60000}")
+    private long recordIdFilterRefreshInterval;
+
+    // interval (in ms) after which the filter is built again from scratch, so removed records are dropped from it
+    @Value("${recordIdFilterRebuildInterval:86400000}")
+    private long recordIdFilterRebuildInterval;
 
     private ExecutorService threadPool;
+    // converts records to EDM when the conversion pipeline is enabled
+    private ThreadPoolExecutor conversionPool;
+    // limits the number of virtual threads that query the technical metadata of a record at the same time
+    private Semaphore technicalMetadataPermits;
     private MongoClient mongoClient;
     private RecordDao recordDao;
+    private RenderedRecordCache edmCache;
+    // limit the number of concurrent fetches of a single record and of a batch of records, null when not enabled.
+    // Their latencies differ too much to share one limit.
+    private AdaptiveConcurrencyLimiter fetchLimiter;
+    private AdaptiveConcurrencyLimiter batchFetchLimiter;
+    // retrieves the records of concurrent GetRecord requests with one query
+    private MicroBatcher<FullBean> getRecordBatcher;
+    private volatile RecordIdFilter recordIdFilter;
+    // records created or updated after this time still have to be added to the record id filter
+    private Date recordIdFilterLoadedFrom;
+    // time (in ms since epoch) of the last successful refresh of the record id filter
+    private volatile long recordIdFilterRefreshed;
 
 
     @PostConstruct
     private void init() {
         initMongo();
         initThreadPool();
+        initConversionPool();
+        initEdmCache();
+        initFetchLimiter();
+        initGetRecordBatcher();
     }
 
     private void initMongo() {
-        // We add a connectionPoolListener so we can keep track of the number of connections
-        // MongoClientOptions.Builder clientOptions = new MongoClientOptions.Builder().addConnectionPoolListener(this);
-        this.mongoClient = MongoClientProvider.create(connectionUrl).createMongoClient();
+        // We add a connectionPoolListener so we can keep track of the connections in use and the time spent waiting for one
+        MongoPoolMetrics poolMetrics = new MongoPoolMetrics("records");
+        // start from the metis defaults (read preference, retry writes, idle time), like MongoClientProvider does
+        this.mongoClient = MongoClients.create(MongoClientProvider.getDefaultMongoClientSettingsBuilder()
+                .applyConnectionString(new ConnectionString(connectionUrl))
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(poolMetrics))
+                .build());
         this.recordDao = new RecordDao(mongoClient, recordDBName, false);
         LOG.info("Connected to mongo database {} at {}", recordDBName, new MongoClientURI(connectionUrl).getHosts());
     }
@@ -86,6 +244,14 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
      * a warning is displayed. When it exceeds <code>maxThreadsCount</code> a warning is displayed and the value is set to <code>MAX_THREADS_THRESHOLD</code>
      */
     private void initThreadPool() {
+        if (isVirtualThreads()) {
+            int permits = getMongoPoolSize();
+            LOG.info("Creating virtual thread executor, querying technical metadata of at most {} records concurrently.", permits);
+            technicalMetadataPermits = new Semaphore(permits);
+            threadPool = Executors.newVirtualThreadPerTaskExecutor();
+            return;
+        }
+
         // init thread pool
         if (maxThreadsCount < THREADS_THRESHOLD) {
             maxThreadsCount = MAX_THREADS_THRESHOLD;
@@ -104,36 +270,57 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
         threadPool = Executors.newFixedThreadPool(threadsCount);
     }
 
-    @Override
-    public void connectionPoolOpened(ConnectionPoolOpenedEvent connectionPoolOpenedEvent) {
-        LOG.debug("Connection pool opened {}", connectionPoolOpenedEvent);
+    private void initConversionPool() {
+        if (!conversionPipeline) {
+            return;
+        }
+        int threads = conversionThreadsCount > 0 ? conversionThreadsCount : Runtime.getRuntime().availableProcessors();
+        LOG.info("Creating conversion pool with {} threads and a queue of {} records.", threads, conversionQueueSize);
+        conversionPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, conversionQueueSize)),
+                (task, executor) -> {
+                    // a full queue slows down the I/O stage by letting it convert the record itself
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Conversion pool is shut down");
+                    }
+                    task.run();
+                });
     }
 
-    @Override
-    public void connectionPoolClosed(ConnectionPoolClosedEvent connectionPoolClosedEvent) {
-        LOG.debug("Connection pool closed {}", connectionPoolClosedEvent);
+    private void initEdmCache() {
+        if (edmCacheSizeMB > 0) {
+            edmCache = new RenderedRecordCache(edmCacheSizeMB, edmCacheExpireAfterWrite);
+        }
     }
 
-    @Override
-    public void connectionCheckedOut(ConnectionCheckedOutEvent connectionCheckedOutEvent) {
-        // ignore
+    private void initFetchLimiter() {
+        if (adaptiveConcurrency) {
+            int maxLimit = adaptiveConcurrencyMaxLimit > 0 ? adaptiveConcurrencyMaxLimit : getMongoPoolSize();
+            fetchLimiter = AdaptiveConcurrencyLimiter.create("mongo_fetch", adaptiveConcurrencyInitialLimit,
+                    adaptiveConcurrencyMinLimit, maxLimit, adaptiveConcurrencyMaxWait);
+            batchFetchLimiter = AdaptiveConcurrencyLimiter.create("mongo_batch_fetch", adaptiveConcurrencyInitialLimit,
+                    adaptiveConcurrencyMinLimit, maxLimit, adaptiveConcurrencyMaxWait);
+        }
     }
 
-    @Override
-    public void connectionCheckedIn(ConnectionCheckedInEvent connectionCheckedInEvent) {
-        // ignore
+    private void initGetRecordBatcher() {
+        if (getRecordBatchWindowMicros > 0 && getRecordBatchSize > 1) {
+            getRecordBatcher = new MicroBatcher<>("GetRecord", this::getFullBeans, getRecordBatchSize, getRecordBatchWindowMicros);
+        }
     }
 
-    @Override
-    public synchronized void connectionAdded(ConnectionAddedEvent connectionAddedEvent) {
-        nrConnections++;
-        LOG.debug("{} for dbProvider {}, total Mongo connections = {}", connectionAddedEvent, this.hashCode(), nrConnections);
+    private boolean isVirtualThreads() {
+        return EXECUTOR_MODE_VIRTUAL.equalsIgnoreCase(executorMode);
     }
 
-    @Override
-    public synchronized void connectionRemoved(ConnectionRemovedEvent connectionRemovedEvent) {
-        nrConnections--;
-        LOG.debug("{} for dbProvider {}, total Mongo connections = {}", connectionRemovedEvent, this.hashCode(), nrConnections);
+    private int getMongoPoolSize() {
+        if (connectionUrl != null) {
+            Integer maxPoolSize = new ConnectionString(connectionUrl).getMaxConnectionPoolSize();
+            if (maxPoolSize != null && maxPoolSize > 0) {
+                return maxPoolSize;
+            }
+        }
+        return DEFAULT_MONGO_POOL_SIZE;
     }
 
     /**
@@ -144,73 +331,449 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
      * @throws OaiPmhException
      */
     @Override
-    @TrackTime
     public Record getRecord(String id) throws OaiPmhException {
+        return getRecord(id, null);
+    }
+
+    /**
+     * Retrieves record from MongoDB and prepares EDM metadata. The timestamps looked up for the version are reused to
+     * check whether the record in the EDM cache is up-to-date.
+     *
+     * @param id identifier of the record (prefixed with ${identifierPrefix}
+     * @param version version returned by {@link #getRecordVersion(String)}, null if it wasn't looked up
+     * @return object of Record class which contains header (with identifier, creation date and sets) and metadata with EDM metadata
+     * @throws OaiPmhException
+     */
+    @Override
+    @TrackTime
+    public Record getRecord(String id, RecordVersion version) throws OaiPmhException {
         String recordId = prepareRecordId(id);
+        if (isKnownMissing(recordId)) {
+            throw new IdDoesNotExistException(id);
+        }
 
-        FullBean bean = getFullBean(recordId);
-        return new Record(getHeader(id, bean), prepareRDFMetadata(recordId, (FullBeanImpl) bean));
+        if (edmCache != null && edmCache.contains(recordId)) {
+            // a cheap lookup of the timestamps tells us if the rendered version of the record is still up-to-date
+            Document summary = version instanceof SummaryVersion ? ((SummaryVersion) version).summary : getRecordSummary(recordId);
+            if (summary == null) {
+                throw new IdDoesNotExistException(id);
+            }
+            String edm = edmCache.get(recordId, summary.getDate(TIMESTAMP_UPDATED_FIELD));
+            if (edm != null) {
+                return new Record(getHeader(id, summary.getDate(TIMESTAMP_CREATED_FIELD),
+                        summary.getList(COLLECTION_NAME_FIELD, String.class, Collections.emptyList())), new RDFMetadata(edm));
+            }
+        }
+
+        FullBean bean = getRecordBatcher == null ? getFullBean(recordId) : getRecordBatcher.get(recordId);
+        Header header = getHeader(id, bean);
+        return new Record(header, prepareRDFMetadata(recordId, (FullBeanImpl) bean, bean.getTimestampUpdated()));
     }
 
+    /**
+     * The version of a record is its last modification date, looked up with one projected query. With
+     * ${conditionalGetRecordTechnicalMetadata} (and injected technical metadata) the version also has a tag with the
+     * version of the technical metadata, as changes to it don't update the record timestamps. That tag needs the
+     * aggregations and technical metadata of the record, which are queried again when the record is retrieved.
+     *
+     * @param id identifier of the record (prefixed with ${identifierPrefix}
+     * @return version of the record
+     * @throws OaiPmhException when the record doesn't exist or could not be retrieved
+     */
     @Override
-    public void checkRecordExists(String id) throws OaiPmhException {
+    public RecordVersion getRecordVersion(String id) throws OaiPmhException {
         String recordId = prepareRecordId(id);
+        if (isKnownMissing(recordId)) {
+            throw new IdDoesNotExistException(id);
+        }
+        Document summary = getRecordSummary(recordId);
+        if (summary == null) {
+            throw new IdDoesNotExistException(id);
+        }
+        Date updated = summary.getDate(TIMESTAMP_UPDATED_FIELD);
+        Date lastModified = updated == null ? summary.getDate(TIMESTAMP_CREATED_FIELD) : updated;
+        String tag = enhanceWithTechnicalMetadata && conditionalGetRecordTechnicalMetadata
+                ? getTechnicalMetadataTag(id, recordId) : null;
+        return new SummaryVersion(lastModified, tag, summary);
+    }
 
-        FullBean bean = getFullBean(recordId);
-        if (bean == null) {
+    /**
+     * Calculates a hash of the technical metadata of all resources of a record. Only the aggregations of the record
+     * (with their web resources) are loaded for this, not the complete record.
+     */
+    private String getTechnicalMetadataTag(String id, String recordId) throws OaiPmhException {
+        FullBeanImpl resources = getRecordResources(recordId);
+        if (resources == null) {
+            throw new IdDoesNotExistException(id);
+        }
+        List<Document> metaInfos = getWebResourceMetaInfoDocuments(getTechnicalMetadataTargets(resources).keySet());
+        metaInfos.sort(Comparator.comparing(metaInfo -> String.valueOf(metaInfo.get(ID_FIELD))));
+        StringBuilder value = new StringBuilder();
+        for (Document metaInfo : metaInfos) {
+            value.append(metaInfo.toJson());
+        }
+        return DigestUtils.md5DigestAsHex(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void checkRecordExists(String id) throws OaiPmhException {
+        String recordId = prepareRecordId(id);
+        if (isKnownMissing(recordId) || !recordExists(recordId)) {
             throw new IdDoesNotExistException("Record with identifier " + id + " not found!");
         }
     }
 
+    /**
+     * Records rejected by the record id filter are reported as missing without querying the database. The filter only
+     * misses records that were created or updated after its last refresh, so this is only done while the filter is
+     * refreshed regularly: when refreshing fails for more than two refresh intervals all lookups go to the database.
+     *
+     * @return true when the record id filter says the record doesn't exist, false when it may exist or the filter is
+     * not available (yet) or outdated
+     */
+    private boolean isKnownMissing(String recordId) {
+        RecordIdFilter filter = recordIdFilter;
+        if (filter == null || System.currentTimeMillis() - recordIdFilterRefreshed > 2 * recordIdFilterRefreshInterval) {
+            return false;
+        }
+        return !filter.mightContain(recordId);
+    }
+
+    /**
+     * Check if a record exists with a query that only returns the about field, so it can be answered from the index
+     *
+     * @param recordId id of the record (without ${identifierPrefix})
+     * @return true if the record exists
+     * @throws InternalServerErrorException when the database could not be queried
+     */
+    @TrackTime
+    boolean recordExists(String recordId) throws InternalServerErrorException {
+        long start = System.nanoTime();
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                try {
+                    return recordDao.getDatastore().getDatabase().getCollection(RECORD_COLLECTION)
+                            .find(new Document(ABOUT_FIELD, recordId))
+                            .projection(new Document(ABOUT_FIELD, 1).append("_id", 0))
+                            .first() != null;
+                } catch (Exception e) {
+                    throw new RuntimeException("Error checking existence of record " + recordId, e);
+                }
+            });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error(String.format(RECORD_WITH_ID, recordId) + " could not be checked.", e);
+            throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_LOOKUP, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Load the record id filter. The first time (and every ${recordIdFilterRebuildInterval} ms) a new filter is built
+     * with the ids of all records, in between only the records that were created or updated since the previous
+     * refresh are added.
+     * Scheduled to run every ${recordIdFilterRefreshInterval} ms when the filter is enabled. Until the first filter is
+     * built all lookups go to the database.
+     */
+    @Scheduled(fixedDelayString = "${recordIdFilterRefreshInterval:60000}")
+    public void refreshRecordIdFilter() {
+        if (!recordIdFilterEnabled || recordDao == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Date loadedFrom = new Date(start - RECORD_ID_FILTER_MARGIN_MS);
+        RecordIdFilter current = recordIdFilter;
+        try {
+            if (current == null || start - current.getCreated() > recordIdFilterRebuildInterval) {
+                RecordIdFilter filter = new RecordIdFilter(recordIdFilterExpectedRecords, recordIdFilterFalsePositiveRate);
+                loadRecordIds(filter, new Document());
+                recordIdFilter = filter;
+                LOG.info("Record id filter with {} records ({} MB) built in {} ms", filter.size(),
+                        filter.getSizeInBytes() / (1024 * 1024), System.currentTimeMillis() - start);
+            } else {
+                // new records may not have timestampUpdated yet
+                Document since = new Document("$gte", recordIdFilterLoadedFrom);
+                long added = loadRecordIds(current, new Document("$or", Arrays.asList(
+                        new Document(TIMESTAMP_UPDATED_FIELD, since), new Document(TIMESTAMP_CREATED_FIELD, since))));
+                LOG.debug("Added {} new and updated records to record id filter in {} ms", added, System.currentTimeMillis() - start);
+            }
+            recordIdFilterLoadedFrom = loadedFrom;
+            recordIdFilterRefreshed = start;
+        } catch (RuntimeException e) {
+            LOG.error("Error refreshing record id filter", e);
+        }
+    }
+
+    /**
+     * Add the ids of all records matching the query to the filter
+     * @return number of ids added
+     */
+    private long loadRecordIds(RecordIdFilter filter, Document query) {
+        long count = 0;
+        for (Document document : recordDao.getDatastore().getDatabase().getCollection(RECORD_COLLECTION)
+                .find(query)
+                .projection(new Document(ABOUT_FIELD, 1).append("_id", 0))
+                .batchSize(RECORD_ID_BATCH_SIZE)) {
+            String about = document.getString(ABOUT_FIELD);
+            if (about != null) {
+                filter.put(about);
+                count++;
+            }
+        }
+        return count;
+    }
+
     @TrackTime
     private FullBean getFullBean(String recordId) throws InternalServerErrorException {
+        long start = System.nanoTime();
         try {
-            return ExternalRequestUtil.retryableExternalRequest(() -> {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> limitFetch(fetchLimiter, () -> {
                 try {
                     return recordDao.getFullBean(recordId);
                 } catch (Exception e) {
                     throw new RuntimeException("Error retrieving fullbean for record "+recordId, e);
                 }
+            }));
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (AdaptiveConcurrencyLimiter.LimitExceededException e) {
+            throw new ServiceUnavailableException(SERVER_TOO_BUSY);
+        } catch (Exception e) {
+            LOG.error(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved.", e);
+            throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_FETCH, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retrieves only the identifier, timestamps and sets of a record from MongoDB, without loading the full record
+     *
+     * @param recordId record id (without ${identifierPrefix})
+     * @return document with about, timestampCreated, timestampUpdated and europeanaCollectionName fields, null if the
+     * record does not exist
+     * @throws InternalServerErrorException when the record could not be retrieved
+     */
+    @TrackTime
+    public Document getRecordSummary(String recordId) throws InternalServerErrorException {
+        long start = System.nanoTime();
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                try {
+                    return recordDao.getDatastore().getDatabase().getCollection(RECORD_COLLECTION)
+                            .find(new Document(ABOUT_FIELD, recordId))
+                            .projection(new Document(ABOUT_FIELD, 1)
+                                    .append(TIMESTAMP_CREATED_FIELD, 1)
+                                    .append(TIMESTAMP_UPDATED_FIELD, 1)
+                                    .append(COLLECTION_NAME_FIELD, 1))
+                            .first();
+                } catch (Exception e) {
+                    throw new RuntimeException("Error retrieving timestamps for record " + recordId, e);
+                }
             });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
         } catch (Exception e) {
             LOG.error(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved.", e);
             throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_LOOKUP, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retrieves only the aggregations (with their web resources) and the europeana aggregation of a record
+     *
+     * @param recordId record id (without ${identifierPrefix})
+     * @return record with only the about, aggregations and europeanaAggregation fields, null if the record does not exist
+     * @throws InternalServerErrorException when the record could not be retrieved
+     */
+    @TrackTime
+    FullBeanImpl getRecordResources(String recordId) throws InternalServerErrorException {
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                try {
+                    return recordDao.getDatastore().find(FullBeanImpl.class)
+                            .filter(Filters.eq(ABOUT_FIELD, recordId))
+                            .first(new FindOptions().projection()
+                                    .include(ABOUT_FIELD, AGGREGATIONS_FIELD, EUROPEANA_AGGREGATION_FIELD));
+                } catch (Exception e) {
+                    throw new RuntimeException("Error retrieving aggregations of record " + recordId, e);
+                }
+            });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved.", e);
+            throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be retrieved due to database problems.");
+        }
+    }
+
+    /**
+     * Retrieves the technical metadata of web resources as it is stored
+     *
+     * @param hashes hashes of the web resource and record ids
+     * @return documents of the technical metadata that was found
+     * @throws InternalServerErrorException when the technical metadata could not be retrieved
+     */
+    @TrackTime
+    List<Document> getWebResourceMetaInfoDocuments(Collection<String> hashes) throws InternalServerErrorException {
+        if (hashes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                try {
+                    String collection = recordDao.getDatastore().getMapper()
+                            .getEntityModel(WebResourceMetaInfoImpl.class).getCollectionName();
+                    return recordDao.getDatastore().getDatabase().getCollection(collection)
+                            .find(new Document(ID_FIELD, new Document("$in", hashes)))
+                            .into(new ArrayList<>());
+                } catch (Exception e) {
+                    throw new RuntimeException("Error retrieving technical metadata of " + hashes.size() + " web resources", e);
+                }
+            });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Technical metadata of {} web resources could not be retrieved.", hashes.size(), e);
+            throw new InternalServerErrorException("Technical metadata could not be retrieved due to database problems.");
+        }
+    }
+
+    /**
+     * Run a record fetch within the adaptive concurrency limit, if enabled. This is done per attempt, so the time
+     * spent waiting for a retry isn't taken for the latency of the database.
+     */
+    private static <T> T limitFetch(AdaptiveConcurrencyLimiter limiter, PipelineMetrics.StageCall<T, RuntimeException> fetch) {
+        if (limiter == null) {
+            return fetch.call();
+        }
+        return limiter.execute(fetch);
+    }
+
+    /**
+     * Retrieves all requested records from MongoDB with one query (instead of a round-trip per record), including
+     * the entities they reference
+     *
+     * @param recordIds list of record ids (without ${identifierPrefix})
+     * @return map of record id to FullBean, records that were not found are not present in the map
+     * @throws InternalServerErrorException when the records could not be retrieved
+     */
+    @TrackTime
+    public Map<String, FullBean> getFullBeans(List<String> recordIds) throws InternalServerErrorException {
+        Map<String, FullBean> beans = new HashMap<>(recordIds.size());
+        if (recordIds.isEmpty()) {
+            return beans;
+        }
+        long start = System.nanoTime();
+        try {
+            List<FullBeanImpl> result = ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> limitFetch(batchFetchLimiter, () -> {
+                try {
+                    return findFullBeans(recordIds);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error retrieving fullbeans for " + recordIds.size() + " records", e);
+                }
+            }));
+            for (FullBeanImpl bean : result) {
+                beans.put(bean.getAbout(), bean);
+            }
+            return beans;
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (AdaptiveConcurrencyLimiter.LimitExceededException e) {
+            throw new ServiceUnavailableException(SERVER_TOO_BUSY);
+        } catch (Exception e) {
+            LOG.error("Batch of {} records could not be retrieved.", recordIds.size(), e);
+            throw new InternalServerErrorException("Records could not be retrieved due to database problems.");
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.MONGO_FETCH, null, System.nanoTime() - start);
         }
     }
 
-    private RDFMetadata prepareRDFMetadata(String recordId, FullBeanImpl bean) throws OaiPmhException {
+    /**
+     * Query MongoDB for the records, the entities they reference (proxies, agents, places, concepts, aggregations
+     * etc.) are loaded with one query per entity type instead of per record
+     */
+    List<FullBeanImpl> findFullBeans(List<String> recordIds) {
+        return new BatchedEntityLoader(recordDao.getDatastore()).find(FullBeanImpl.class, ABOUT_FIELD, recordIds);
+    }
+
+    private RDFMetadata prepareRDFMetadata(String recordId, FullBeanImpl bean, Date timestampUpdated) throws OaiPmhException {
+        return prepareRDFMetadata(recordId, bean, timestampUpdated, false);
+    }
+
+    private RDFMetadata prepareRDFMetadata(String recordId, FullBeanImpl bean, Date timestampUpdated, boolean enhanced) throws OaiPmhException {
         if (bean != null) {
-            enhanceWithTechnicalMetadata(bean);
-            RDF rdf = getRDF(bean);
-            if (rdf == null) {
-                throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be converted to EDM.");
+            if (!enhanced) {
+                enhanceWithTechnicalMetadata(bean);
             }
-            updateDatasetName(rdf);
-            String edm = getEDM(rdf);
-            return new RDFMetadata(removeXMLHeader(edm));
+            return renderRDFMetadata(recordId, bean, timestampUpdated);
         }
         throw new IdDoesNotExistException(recordId);
     }
 
+    private RDFMetadata renderRDFMetadata(String recordId, FullBeanImpl bean, Date timestampUpdated) throws InternalServerErrorException {
+        String edm = convertToEDM(recordId, bean);
+        if (edmCache != null) {
+            edmCache.put(recordId, timestampUpdated, edm);
+        }
+        return new RDFMetadata(edm);
+    }
+
+    /**
+     * Converts the record to EDM (FullBean to RDF to RDF/XML), without the xml declaration
+     *
+     * @param recordId record id (without ${identifierPrefix}), only used for error reporting
+     * @param bean record to convert
+     * @return EDM metadata of the record
+     * @throws InternalServerErrorException when the record could not be converted
+     */
+    public String convertToEDM(String recordId, FullBeanImpl bean) throws InternalServerErrorException {
+        RDF rdf = getRDF(bean);
+        if (rdf == null) {
+            throw new InternalServerErrorException(String.format(RECORD_WITH_ID, recordId) + " could not be converted to EDM.");
+        }
+        updateDatasetName(rdf);
+        return getEDM(rdf);
+    }
+
+    /**
+     * Marshals the RDF to RDF/XML like <code>EdmUtils.toEDM</code> does, but straight to a writer and without the xml
+     * declaration, so the result doesn't have to be copied again to remove the declaration
+     *
+     * @param rdf record to marshal
+     * @return EDM metadata of the record, without the xml declaration
+     * @throws InternalServerErrorException when the record could not be marshalled
+     */
     @TrackTime
-    public String getEDM(RDF rdf) {
-        try {
-            return EdmUtils.toEDM(rdf);
-        } catch (RuntimeException e) {
-            // in the past we've had records that threw a JibX marshalling error because of missing data,
-            // so we catch those to log which record fails
-            String id = "unknown";
-            if (!rdf.getEuropeanaAggregationList().isEmpty()) {
-                id = rdf.getEuropeanaAggregationList().get(0).getAbout();
+    public String getEDM(RDF rdf) throws InternalServerErrorException {
+        return PipelineMetrics.time(PipelineMetrics.Stage.TO_EDM, () -> {
+            try {
+                StringWriter writer = new StringWriter(EDM_BUFFER_SIZE);
+                IMarshallingContext context = RdfBinding.FACTORY.createMarshallingContext();
+                context.setIndent(EDM_INDENT);
+                context.setOutput(writer);
+                context.marshalDocument(rdf);
+                return writer.toString();
+            } catch (JiBXException | RuntimeException e) {
+                // in the past we've had records that threw a JibX marshalling error because of missing data,
+                // so we catch those to log which record fails
+                String id = "unknown";
+                if (!rdf.getEuropeanaAggregationList().isEmpty()) {
+                    id = rdf.getEuropeanaAggregationList().get(0).getAbout();
+                }
+                LOG.error("Error converting RDF to EDM for record {}", id, e);
+                throw new InternalServerErrorException(String.format(RECORD_WITH_ID, id) + " could not be converted to EDM.");
             }
-            LOG.error("Error converting RDF to EDM for record {}", id);
-            throw e;
-        }
+        });
     }
 
     @TrackTime
     public RDF getRDF(FullBeanImpl bean) {
-        return EdmUtils.toRDF(bean);
+        return PipelineMetrics.time(PipelineMetrics.Stage.TO_RDF, () -> EdmUtils.toRDF(bean));
     }
 
     @Override
@@ -219,21 +782,72 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
 
         List<Record> records = new ArrayList<>(identifiers.size());
 
+        // records that were rendered before are taken from the cache (the header datestamp is the last update timestamp)
+        Map<String, RDFMetadata> cached = new HashMap<>();
+        if (edmCache != null) {
+            for (Header header : identifiers) {
+                String recordId = prepareRecordId(header.getIdentifier());
+                String edm = edmCache.get(recordId, header.getDatestamp());
+                if (edm != null) {
+                    cached.put(recordId, new RDFMetadata(edm));
+                }
+            }
+        }
+
+        // retrieve all other records of this page with one database query, the tasks only do the conversion to EDM
+        List<String> recordIds = new ArrayList<>(identifiers.size());
+        for (Header header : identifiers) {
+            String recordId = prepareRecordId(header.getIdentifier());
+            if (!cached.containsKey(recordId)) {
+                recordIds.add(recordId);
+            }
+        }
+        Map<String, FullBean> beans = getFullBeans(recordIds);
+        boolean enhanced = enhanceWithTechnicalMetadata && technicalMetadataPerPage;
+        if (enhanced) {
+            enhanceWithTechnicalMetadata(beans.values());
+        }
+
+        if (conversionPool != null) {
+            try {
+                records = collectRecordsPipelined(identifiers, beans, cached, enhanced);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Thread interrupted.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ServiceUnavailableException) {
+                    throw (ServiceUnavailableException) e.getCause();
+                }
+                String msg = "Error retrieving data";
+                LOG.error(msg, e);
+                throw new InternalServerErrorException(msg);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("ListRecords using conversion pipeline finished in {} ms.", (System.currentTimeMillis() - startTime));
+            }
+            ListRecords result = new ListRecords();
+            result.setRecords(records);
+            return result;
+        }
+
         // split identifiers into several threads
         List<Future<CollectRecordsResult>> results;
         List<Callable<CollectRecordsResult>> tasks = new ArrayList<>();
 
+        // with virtual threads every record gets its own task, otherwise we create a task for each thread of the pool
+        int tasksCount = isVirtualThreads() ? identifiers.size() : threadsCount;
+
         // when creating threads we round off, any remaining record is added to the last created thread
-        double perThread = identifiers.size() / (double) threadsCount;
-        LOG.debug("{} identifiers and {} threads, so {} records per thread", identifiers.size(), threadsCount, perThread);
+        double perThread = identifiers.size() / (double) tasksCount;
+        LOG.debug("{} identifiers and {} tasks, so {} records per task", identifiers.size(), tasksCount, perThread);
 
         // create task for each thread
-        for (int i = 0; i < threadsCount; i++) {
+        for (int i = 0; i < tasksCount; i++) {
             int start = (int) (i * perThread);
             int end = (int) ((i + 1) * perThread);
             List<Header> headers = identifiers.subList(start, end);
             LOG.debug("Creating task {} to retrieve records {} to {}", i, start, end);
-            tasks.add(new CollectRecordsTask(headers, i));
+            tasks.add(new CollectRecordsTask(headers, beans, cached, enhanced, i));
         }
         try {
             // invoke a separate thread for each provider
@@ -246,19 +860,23 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
                     LOG.debug("Thread {} collected {} records.",
                             collectRecordsResult.getThreadId(), collectRecordsResult.getRecords().size());
                 }
-                records.addAll((int) (collectRecordsResult.getThreadId() * perThread), collectRecordsResult.getRecords());
+                // results are returned in the order of the tasks, so records stay in the order of the identifiers
+                records.addAll(collectRecordsResult.getRecords());
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             LOG.error("Thread interrupted.", e);
         } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceUnavailableException) {
+                throw (ServiceUnavailableException) e.getCause();
+            }
             String msg = "Error retrieving data";
             LOG.error(msg, e);
             throw new InternalServerErrorException(msg);
         }
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("ListRecords using {} threads finished in {} ms.", threadsCount, (System.currentTimeMillis() - startTime));
+            LOG.debug("ListRecords using {} tasks finished in {} ms.", tasksCount, (System.currentTimeMillis() - startTime));
         }
 
         ListRecords result = new ListRecords();
@@ -266,6 +884,77 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
         return result;
     }
 
+    /**
+     * Retrieves the records in chunks of streamRecordsChunkSize identifiers, so a streamed ListRecords response only
+     * keeps the records of one chunk in memory
+     */
+    @Override
+    public void listRecords(List<Header> identifiers, RecordConsumer consumer) throws OaiPmhException {
+        int chunkSize = streamRecordsChunkSize > 0 ? streamRecordsChunkSize : Math.max(identifiers.size(), 1);
+        for (int i = 0; i < identifiers.size(); i += chunkSize) {
+            List<Header> chunk = identifiers.subList(i, Math.min(i + chunkSize, identifiers.size()));
+            for (Record record : listRecords(chunk).getRecords()) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Collect the records of a page in two stages: the technical metadata of each record is injected by the thread pool
+     * (I/O bound, like the Mongo fetch) and the result is handed over to the conversion pool (CPU bound, sized to the
+     * number of processors) to convert it to EDM. The bounded queue of the conversion pool limits the number of records
+     * in memory that are waiting to be converted.
+     *
+     * @param pageEnhanced true if the technical metadata was already injected for the whole page
+     * @return the records in the order of the identifiers
+     */
+    private List<Record> collectRecordsPipelined(List<Header> identifiers, Map<String, FullBean> beans,
+                                                 Map<String, RDFMetadata> cached, boolean pageEnhanced) throws InterruptedException, ExecutionException {
+        String verb = PipelineMetrics.getVerb();
+        List<CompletableFuture<Record>> futures = new ArrayList<>(identifiers.size());
+        for (Header header : identifiers) {
+            String recordId = prepareRecordId(header.getIdentifier());
+            RDFMetadata metadata = cached.get(recordId);
+            if (metadata != null) {
+                futures.add(CompletableFuture.completedFuture(new Record(header, metadata)));
+                continue;
+            }
+            FullBeanImpl bean = (FullBeanImpl) beans.get(recordId);
+            futures.add(CompletableFuture
+                    .supplyAsync(() -> runStage(verb, () -> {
+                        if (bean == null) {
+                            throw new IdDoesNotExistException(recordId);
+                        }
+                        if (!pageEnhanced) {
+                            enhanceWithTechnicalMetadata(bean);
+                        }
+                        return bean;
+                    }), threadPool)
+                    .thenApplyAsync(enhanced -> runStage(verb, () ->
+                            new Record(header, renderRDFMetadata(recordId, enhanced, header.getDatestamp()))), conversionPool));
+        }
+
+        List<Record> records = new ArrayList<>(identifiers.size());
+        for (CompletableFuture<Record> future : futures) {
+            records.add(future.get());
+        }
+        return records;
+    }
+
+    /**
+     * Run a stage of the conversion pipeline with the verb of the request set for the metrics
+     */
+    private <T> T runStage(String verb, PipelineMetrics.StageCall<T, OaiPmhException> stage) {
+        String previousVerb = PipelineMetrics.setVerb(verb);
+        try {
+            return stage.call();
+        } catch (OaiPmhException e) {
+            throw new CompletionException(e);
+        } finally {
+            PipelineMetrics.setVerb(previousVerb);
+        }
+    }
+
     @TrackTime
     private void updateDatasetName(RDF rdf) {
         EuropeanaAggregationType aggregationType = rdf.getEuropeanaAggregationList().get(0);
@@ -281,37 +970,200 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
     private void enhanceWithTechnicalMetadata(FullBean bean) {
         long start = System.currentTimeMillis();
         if (enhanceWithTechnicalMetadata && bean != null) {
-            WebMetaInfo.injectWebMetaInfoBatch(bean, recordDao, null);
+            // with virtual threads every record has its own thread, only the query is limited to the size of the pool
+            Semaphore permits = technicalMetadataPermits;
+            if (permits != null) {
+                permits.acquireUninterruptibly();
+            }
+            try {
+                PipelineMetrics.time(PipelineMetrics.Stage.TECHNICAL_METADATA, () -> {
+                    WebMetaInfo.injectWebMetaInfoBatch(bean, recordDao, null);
+                    return null;
+                });
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Technical metadata injected in {} ms.", String.valueOf(System.currentTimeMillis() - start));
             }
         }
     }
 
+    /**
+     * Injects the technical metadata of the web resources of all records with one query. The metadata is looked up in
+     * the same way as WebMetaInfo.injectWebMetaInfoBatch does for one record (see {@link #getTechnicalMetadataTargets}).
+     *
+     * @param beans records to enhance
+     * @throws InternalServerErrorException when the technical metadata could not be retrieved
+     */
     @TrackTime
-    private String removeXMLHeader(String xml) {
-        int index = xml.indexOf("?>");
-        if (index != -1) {
-            return xml.substring(index + "?>".length());
+    void enhanceWithTechnicalMetadata(Collection<FullBean> beans) throws InternalServerErrorException {
+        long start = System.nanoTime();
+        try {
+            Map<String, List<TechnicalMetadataTarget>> targets = new HashMap<>();
+            for (FullBean bean : beans) {
+                getTechnicalMetadataTargets((FullBeanImpl) bean).forEach((hash, target) ->
+                        targets.computeIfAbsent(hash, h -> new ArrayList<>()).add(target));
+            }
+            if (targets.isEmpty()) {
+                return;
+            }
+            for (WebResourceMetaInfoImpl metaInfo : getWebResourceMetaInfo(targets.keySet())) {
+                for (TechnicalMetadataTarget target : targets.getOrDefault(metaInfo.getId(), Collections.emptyList())) {
+                    target.inject(metaInfo);
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Technical metadata of {} web resources of {} records injected in {} ms.", targets.size(),
+                        beans.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.TECHNICAL_METADATA, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Collects the resources of a record that can have technical metadata, by the hash under which the metadata is
+     * stored. Like WebMetaInfo these are the web resources of the aggregations and the edm:isShownBy, edm:hasView and
+     * edm:object of the aggregations and the edm:preview of the europeana aggregation. When there is no web resource
+     * for one of the latter, a new one is added to the aggregation when technical metadata is found for it.
+     */
+    static Map<String, TechnicalMetadataTarget> getTechnicalMetadataTargets(FullBeanImpl bean) {
+        Map<String, TechnicalMetadataTarget> targets = new LinkedHashMap<>();
+        List<? extends Aggregation> aggregations = bean.getAggregations();
+        if (aggregations != null) {
+            for (Aggregation aggregation : aggregations) {
+                if (aggregation.getWebResources() != null) {
+                    for (WebResource webResource : aggregation.getWebResources()) {
+                        targets.putIfAbsent(getWebResourceHash(webResource.getAbout(), bean.getAbout()),
+                                new TechnicalMetadataTarget((WebResourceImpl) webResource, null));
+                    }
+                }
+            }
+            for (Aggregation aggregation : aggregations) {
+                List<String> urls = new ArrayList<>();
+                urls.add(aggregation.getEdmIsShownBy());
+                if (aggregation.getHasView() != null) {
+                    urls.addAll(Arrays.asList(aggregation.getHasView()));
+                }
+                urls.add(aggregation.getEdmObject());
+                for (String url : urls) {
+                    addTechnicalMetadataTarget(targets, bean, url, aggregation::getWebResources, aggregation::setWebResources);
+                }
+            }
+        }
+        EuropeanaAggregation europeanaAggregation = bean.getEuropeanaAggregation();
+        if (europeanaAggregation != null) {
+            addTechnicalMetadataTarget(targets, bean, europeanaAggregation.getEdmPreview(),
+                    europeanaAggregation::getWebResources, europeanaAggregation::setWebResources);
+        }
+        return targets;
+    }
+
+    private static void addTechnicalMetadataTarget(Map<String, TechnicalMetadataTarget> targets, FullBean bean, String url,
+                                                   Supplier<List<? extends WebResource>> getter,
+                                                   Consumer<List<? extends WebResource>> setter) {
+        if (StringUtils.isBlank(url)) {
+            return;
+        }
+        targets.computeIfAbsent(getWebResourceHash(url, bean.getAbout()), hash -> {
+            WebResourceImpl webResource = new WebResourceImpl();
+            webResource.setAbout(url);
+            return new TechnicalMetadataTarget(webResource, () -> {
+                List<WebResource> webResources = getter.get() == null ? new ArrayList<>() : new ArrayList<>(getter.get());
+                webResources.add(webResource);
+                setter.accept(webResources);
+            });
+        });
+    }
+
+    private static String getWebResourceHash(String webResourceId, String recordId) {
+        return DigestUtils.md5DigestAsHex((webResourceId + "-" + recordId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Version of a record together with the timestamps and sets that were looked up to determine it
+     */
+    private static final class SummaryVersion extends RecordVersion {
+
+        private final Document summary;
+
+        SummaryVersion(Date lastModified, String tag, Document summary) {
+            super(lastModified, tag);
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * Web resource that gets technical metadata, with the action that adds it to the record if it's not part of it yet
+     */
+    static final class TechnicalMetadataTarget {
+
+        private final WebResourceImpl webResource;
+        private final Runnable addToRecord;
+
+        TechnicalMetadataTarget(WebResourceImpl webResource, Runnable addToRecord) {
+            this.webResource = webResource;
+            this.addToRecord = addToRecord;
+        }
+
+        void inject(WebResourceMetaInfoImpl metaInfo) {
+            webResource.setWebResourceMetaInfo(metaInfo);
+            if (addToRecord != null) {
+                addToRecord.run();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the technical metadata of web resources
+     *
+     * @param hashes hashes of the web resource and record ids
+     * @return the technical metadata that was found
+     * @throws InternalServerErrorException when the technical metadata could not be retrieved
+     */
+    @TrackTime
+    public List<WebResourceMetaInfoImpl> getWebResourceMetaInfo(Collection<String> hashes) throws InternalServerErrorException {
+        try {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.MONGO, () -> {
+                try {
+                    return recordDao.getDatastore().find(WebResourceMetaInfoImpl.class)
+                            .filter(Filters.in(ID_FIELD, hashes))
+                            .iterator()
+                            .toList();
+                } catch (Exception e) {
+                    throw new RuntimeException("Error retrieving technical metadata of " + hashes.size() + " web resources", e);
+                }
+            });
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Technical metadata of {} web resources could not be retrieved.", hashes.size(), e);
+            throw new InternalServerErrorException("Technical metadata could not be retrieved due to database problems.");
         }
-        return xml;
     }
 
     private Header getHeader(String id, FullBean bean) throws IdDoesNotExistException {
         if (bean != null) {
-            Header header = new Header();
-            header.setIdentifier(id);
-            header.setDatestamp(bean.getTimestampCreated());
-            List<String> setSpec = new ArrayList<>();
-            for (String setName : bean.getEuropeanaCollectionName()) {
-                setSpec.add(getSetIdentifier(setName));
-            }
-            header.setSetSpec(setSpec);
-            return header;
+            return getHeader(id, bean.getTimestampCreated(), Arrays.asList(bean.getEuropeanaCollectionName()));
         }
         throw new IdDoesNotExistException(id);
     }
 
+    private Header getHeader(String id, Date timestampCreated, Collection<String> setNames) {
+        Header header = new Header();
+        header.setIdentifier(id);
+        header.setDatestamp(timestampCreated);
+        List<String> setSpec = new ArrayList<>();
+        for (String setName : setNames) {
+            setSpec.add(getSetIdentifier(setName));
+        }
+        header.setSetSpec(setSpec);
+        return header;
+    }
+
     @Override
     @PreDestroy
     public void close() {
@@ -322,6 +1174,9 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
         if (threadPool != null) {
             threadPool.shutdown();
         }
+        if (conversionPool != null) {
+            conversionPool.shutdown();
+        }
     }
 
 
@@ -331,9 +1186,24 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
 
         private List<Header> identifiers;
 
-        CollectRecordsTask(List<Header> identifiers, int threadId) {
+        private Map<String, FullBean> beans;
+
+        private Map<String, RDFMetadata> cached;
+
+        // true if the technical metadata was already injected for the whole page
+        private boolean enhanced;
+
+        // tasks run in other threads, so we pass on the verb of the request for the metrics
+        private String verb;
+
+        CollectRecordsTask(List<Header> identifiers, Map<String, FullBean> beans, Map<String, RDFMetadata> cached,
+                           boolean enhanced, int threadId) {
             this.identifiers = identifiers;
+            this.beans = beans;
+            this.cached = cached;
+            this.enhanced = enhanced;
             this.threadId = threadId;
+            this.verb = PipelineMetrics.getVerb();
             LOG.trace("Create thread {}", threadId);
         }
 
@@ -341,10 +1211,18 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
         public CollectRecordsResult call() throws Exception {
             List<Record> records = new ArrayList<>();
 
-            for (Header header : identifiers) {
-                String recordId = prepareRecordId(header.getIdentifier());
-                FullBean bean = getFullBean(recordId);
-                records.add(new Record(header, prepareRDFMetadata(recordId, (FullBeanImpl) bean)));
+            String previousVerb = PipelineMetrics.setVerb(verb);
+            try {
+                for (Header header : identifiers) {
+                    String recordId = prepareRecordId(header.getIdentifier());
+                    RDFMetadata metadata = cached.get(recordId);
+                    if (metadata == null) {
+                        metadata = prepareRDFMetadata(recordId, (FullBeanImpl) beans.get(recordId), header.getDatestamp(), enhanced);
+                    }
+                    records.add(new Record(header, metadata));
+                }
+            } finally {
+                PipelineMetrics.setVerb(previousVerb);
             }
             return new CollectRecordsResult(threadId, records);
         }
@@ -367,4 +1245,21 @@ public class DBRecordProvider extends BaseProvider implements RecordProvider, Co
             return records;
         }
     }
+
+    /**
+     * The JibX binding factory is thread-safe, so it's looked up once (when the first record is converted)
+     */
+    private static final class RdfBinding {
+        private static final IBindingFactory FACTORY;
+
+        static {
+            try {
+                FACTORY = BindingDirectory.getFactory(RDF.class);
+            } catch (JiBXException e) {
+                throw new IllegalStateException("No JibX binding found for RDF", e);
+            }
+        }
+
+        private RdfBinding() {}
+    }
 }
@@ -4,10 +4,13 @@ import eu.europeana.oaipmh.model.Identify;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
 import eu.europeana.oaipmh.util.DateConverter;
 import eu.europeana.oaipmh.util.SolrQueryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 
 import java.util.Date;
 
@@ -15,6 +18,8 @@ import static eu.europeana.oaipmh.util.SolrConstants.TIMESTAMP_UPDATE;
 
 public class DefaultIdentifyProvider extends SolrBasedProvider implements IdentifyProvider {
 
+    private static final Logger LOG = LogManager.getLogger(DefaultIdentifyProvider.class);
+
     @Value("${repositoryName}")
     private String repositoryName;
 
@@ -40,8 +45,38 @@ public class DefaultIdentifyProvider extends SolrBasedProvider implements Identi
     @Value("${compression}")
     private String[] compression;
 
+    // the Identify data only changes when the earliest timestamp changes, so it's created once and refreshed in the background
+    private volatile Identify cachedIdentify;
+
+    /**
+     * Reload the earliest timestamp from Solr and replace the cached Identify object. Scheduled to run every
+     * ${identifyRefreshInterval} ms (starting directly after start-up). If refreshing fails the previous data is kept.
+     */
+    @Scheduled(fixedDelayString = "${identifyRefreshInterval:3600000}")
+    public void refreshIdentify() {
+        try {
+            cachedIdentify = createIdentify();
+            LOG.debug("Identify refreshed, earliest datestamp is {}", cachedIdentify.getEarliestDatestamp());
+        } catch (OaiPmhException | RuntimeException e) {
+            LOG.error("Error refreshing Identify data", e);
+        }
+    }
+
+    /**
+     * Returns the cached Identify object. Only when it wasn't loaded yet Solr is queried directly.
+     * Note that the same object is returned until it is refreshed, so callers should not modify it.
+     */
     @Override
     public Identify provideIdentify() throws OaiPmhException {
+        Identify current = cachedIdentify;
+        if (current == null) {
+            current = createIdentify();
+            cachedIdentify = current;
+        }
+        return current;
+    }
+
+    private Identify createIdentify() throws OaiPmhException {
         Identify identify = new Identify();
         identify.setBaseURL(baseURL);
         identify.setAdminEmail(adminEmail);
@@ -1,5 +1,6 @@
 package eu.europeana.oaipmh.service;
 
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
 import eu.europeana.oaipmh.model.ListSets;
 import eu.europeana.oaipmh.model.ResumptionToken;
 import eu.europeana.oaipmh.model.Set;
@@ -7,10 +8,16 @@ import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
 import eu.europeana.oaipmh.util.ResumptionTokenHelper;
 import eu.europeana.oaipmh.util.SolrQueryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.FieldStatsInfo;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.json.BucketBasedJsonFacet;
+import org.apache.solr.client.solrj.response.json.BucketJsonFacet;
+import org.apache.solr.client.solrj.response.json.NestableJsonFacet;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -19,9 +26,125 @@ import java.util.List;
 import static eu.europeana.oaipmh.util.SolrConstants.DATASET_NAME;
 
 public class DefaultSetsProvider extends SolrBasedProvider implements SetsProvider {
+
+    private static final Logger LOG = LogManager.getLogger(DefaultSetsProvider.class);
+
     @Value("${setsPerPage}")
     private int setsPerPage;
 
+    // when enabled ListSets is served from an in-memory snapshot of all sets which is refreshed in the background. The
+    // snapshot is also used to filter ListIdentifiers and ListRecords on the exact names of a set
+    @Value("${setsCatalogueEnabled:true}")
+    private boolean setsCatalogueEnabled;
+
+    // maximum age (in ms) of the snapshot, when it's older (because refreshing failed) Solr is queried directly
+    @Value("${setsCatalogueMaxAge:3600000}")
+    private long setsCatalogueMaxAge;
+
+    private volatile SetCatalogue catalogue;
+
+    /**
+     * Reload the set catalogue from Solr. Scheduled to run every ${setsCatalogueRefreshInterval} ms (starting directly
+     * after start-up) when the catalogue is enabled.
+     */
+    @Scheduled(fixedDelayString = "${setsCatalogueRefreshInterval:600000}")
+    public void refreshCatalogue() {
+        if (!setsCatalogueEnabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            catalogue = responseToCatalogue(executeQuery(SolrQueryBuilder.setCatalogue()));
+            LOG.info("Set catalogue with {} sets loaded in {} ms", catalogue.size(), System.currentTimeMillis() - start);
+        } catch (OaiPmhException | RuntimeException e) {
+            LOG.error("Error refreshing set catalogue", e);
+        }
+    }
+
+    /**
+     * @return the set catalogue, or null when it's not enabled, not loaded yet or too old
+     */
+    public SetCatalogue getCatalogue() {
+        SetCatalogue current = catalogue;
+        if (current != null && System.currentTimeMillis() - current.getCreated() <= setsCatalogueMaxAge) {
+            return current;
+        }
+        return null;
+    }
+
+    /**
+     * Resolve the set identifier using the set catalogue. Sets that are not in the catalogue (for example because they
+     * were added after it was loaded) are not resolved, so records are filtered on the set identifier prefix.
+     *
+     * @param setSpec set identifier
+     * @return set names, or null when the catalogue is not available or doesn't contain the set
+     */
+    @Override
+    public List<String> getSetNames(String setSpec) {
+        SetCatalogue current = getCatalogue();
+        if (current == null) {
+            return null;
+        }
+        List<String> names = current.getSetNames(setSpec);
+        return names.isEmpty() ? null : names;
+    }
+
+    /**
+     * Create the set catalogue from the JSON facet response (see {@link SolrQueryBuilder#setCatalogue()})
+     *
+     * @param response response returned by Solr
+     * @return new set catalogue
+     */
+    private SetCatalogue responseToCatalogue(QueryResponse response) throws InternalServerErrorException {
+        NestableJsonFacet facets = response.getJsonFacetingResponse();
+        BucketBasedJsonFacet setsFacet = facets == null ? null : facets.getBucketBasedFacets(SolrQueryBuilder.SET_CATALOGUE_FACET);
+        if (setsFacet == null) {
+            throw new InternalServerErrorException("An error occurred while retrieving information from the index.");
+        }
+        SetCatalogue.Builder builder = new SetCatalogue.Builder();
+        for (BucketJsonFacet bucket : setsFacet.getBuckets()) {
+            String setName = String.valueOf(bucket.getVal());
+            builder.add(getSetIdentifier(setName), setName);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the set catalogue if it can be used for a ListSets request. Requests with from or until dates are always
+     * answered by Solr, which only lists the sets that have records updated in that range.
+     *
+     * @param from start date, may be null
+     * @param until end date, may be null
+     * @return the set catalogue, or null when Solr should be queried
+     */
+    private SetCatalogue getCatalogue(Date from, Date until) {
+        return from == null && until == null ? getCatalogue() : null;
+    }
+
+    /**
+     * Prepare a page of sets from the set catalogue
+     *
+     * @param catalogue set catalogue
+     * @param cursor index of the first set on the page
+     * @return ListSets object with sets and resumption token if necessary
+     */
+    private ListSets catalogueToListSets(SetCatalogue catalogue, long cursor) {
+        List<Set> allSets = catalogue.getSets();
+        int start = (int) Math.min(cursor, allSets.size());
+        int end = Math.min(start + setsPerPage, allSets.size());
+
+        ListSets listSets = new ListSets();
+        listSets.setSets(new ArrayList<>(allSets.subList(start, end)));
+        if (shouldCreateResumptionToken(cursor, end - start, allSets.size())) {
+            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(
+                    new Date(System.currentTimeMillis() + getResumptionTokenTTL()),
+                    allSets.size(),
+                    cursor);
+            listSets.setResumptionToken(resumptionToken);
+        }
+        return listSets;
+    }
+
     /**
      * List the first or the only page of sets.
      *
@@ -30,23 +153,29 @@ public class DefaultSetsProvider extends SolrBasedProvider implements SetsProvid
      */
     @Override
     public ListSets listSets(Date from, Date until) throws OaiPmhException {
+        SetCatalogue current = getCatalogue(from, until);
+        if (current != null) {
+            return catalogueToListSets(current, 0);
+        }
         QueryResponse response = executeQuery(SolrQueryBuilder.listSets(setsPerPage, from, until, 0));
         FieldStatsInfo info = response.getFieldStatsInfo().get(DATASET_NAME);
         if (info == null) {
             throw new InternalServerErrorException("An error occurred while retrieving information from the index.");
         }
-        return responseToListSets(response, 0, info.getCountDistinct());
+        return responseToListSets(response, from, until, 0, info.getCountDistinct());
     }
 
     /**
      * Retrieve information from the Solr response and put it into the ListSets object.
      *
      * @param response response returned by Solr
+     * @param from start date used for filtering, stored in the resumption token
+     * @param until end date used for filtering, stored in the resumption token
      * @param cursor new cursor for the resumption token
      * @param completeListSize number of all elements
      * @return ListSets object with sets and resumption token if necessary
      */
-    private ListSets responseToListSets(QueryResponse response, long cursor, long completeListSize) {
+    private ListSets responseToListSets(QueryResponse response, Date from, Date until, long cursor, long completeListSize) {
         ListSets listSets = new ListSets();
         List<Set> sets = new ArrayList<>();
 
@@ -60,9 +189,11 @@ public class DefaultSetsProvider extends SolrBasedProvider implements SetsProvid
 
         if (shouldCreateResumptionToken(cursor, field.getValueCount(), completeListSize)) {
             // create resumption token for ListSets
-            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(new Date(System.currentTimeMillis() + getResumptionTokenTTL()),
+            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(from, until, null, null,
+                    new Date(System.currentTimeMillis() + getResumptionTokenTTL()),
                     completeListSize,
-                    cursor);
+                    cursor,
+                    null);
             listSets.setResumptionToken(resumptionToken);
         }
         return listSets;
@@ -88,8 +219,13 @@ public class DefaultSetsProvider extends SolrBasedProvider implements SetsProvid
      * @throws OaiPmhException
      */
     @Override
-    public ListSets listSets(ResumptionToken resumptionToken) throws OaiPmhException {
-        QueryResponse response = executeQuery(SolrQueryBuilder.listSets(setsPerPage, null, null, resumptionToken.getCursor() + setsPerPage));
-        return responseToListSets(response, resumptionToken.getCursor() + setsPerPage, resumptionToken.getCompleteListSize());
+    public ListSets listSets(DecodedResumptionToken resumptionToken) throws OaiPmhException {
+        long cursor = resumptionToken.getCursor() + setsPerPage;
+        SetCatalogue current = getCatalogue(resumptionToken.getFrom(), resumptionToken.getUntil());
+        if (current != null) {
+            return catalogueToListSets(current, cursor);
+        }
+        QueryResponse response = executeQuery(SolrQueryBuilder.listSets(setsPerPage, resumptionToken.getFrom(), resumptionToken.getUntil(), cursor));
+        return responseToListSets(response, resumptionToken.getFrom(), resumptionToken.getUntil(), cursor, resumptionToken.getCompleteListSize());
     }
 }
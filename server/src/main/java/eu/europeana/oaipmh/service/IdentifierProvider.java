@@ -1,7 +1,7 @@
 package eu.europeana.oaipmh.service;
 
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
 import eu.europeana.oaipmh.model.ListIdentifiers;
-import eu.europeana.oaipmh.model.ResumptionToken;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
 
 import java.util.Date;
@@ -30,5 +30,13 @@ public interface IdentifierProvider extends ClosableProvider {
      * @return object with a list of header objects from the next page
      * @throws OaiPmhException
      */
-    ListIdentifiers listIdentifiers(ResumptionToken resumptionToken, int pageSize) throws OaiPmhException;
+    ListIdentifiers listIdentifiers(DecodedResumptionToken resumptionToken, int pageSize) throws OaiPmhException;
+
+    /**
+     * Providers that filter on sets can use the sets provider to resolve set identifiers to the full set names
+     * @param setsProvider sets provider
+     */
+    default void setSetsProvider(SetsProvider setsProvider) {
+        // not used by default
+    }
 }
@@ -0,0 +1,95 @@
+package eu.europeana.oaipmh.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.europeana.oaipmh.model.ListRecords;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+
+/**
+ * Retrieves the next page of a ListRecords request in the background, so it is ready when the harvester requests it
+ * with the resumption token it just received. Prefetched pages are kept in a small store keyed by the (encoded)
+ * resumption token. Each page can be taken only once and expires after a short time when it's not requested.
+ */
+public class ListRecordsPrefetcher {
+
+    private static final Logger LOG = LogManager.getLogger(ListRecordsPrefetcher.class);
+
+    private final Cache<String, CompletableFuture<ListRecords>> pages;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a new prefetcher
+     * @param maxPages maximum number of pages that are prefetched or kept at the same time
+     * @param ttl time in ms after which a prefetched page that was not requested is discarded
+     * @param threads number of threads used for prefetching
+     */
+    public ListRecordsPrefetcher(int maxPages, long ttl, int threads) {
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(maxPages)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        // the queue is bounded, when it's full new prefetch requests are rejected
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxPages));
+        LOG.info("Prefetching next ListRecords pages using {} threads, keeping at most {} pages for {} ms", threads, maxPages, ttl);
+    }
+
+    /**
+     * Start retrieving the page for the given resumption token in the background, unless it's already being retrieved.
+     * @param resumptionToken encoded resumption token of the page
+     * @param loader retrieves the page
+     */
+    public void prefetch(String resumptionToken, Callable<ListRecords> loader) {
+        CompletableFuture<ListRecords> page = new CompletableFuture<>();
+        if (pages.asMap().putIfAbsent(resumptionToken, page) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    page.complete(loader.call());
+                } catch (Exception e) {
+                    page.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Too many pages being prefetched, skipping resumption token {}", resumptionToken);
+            pages.asMap().remove(resumptionToken, page);
+        }
+    }
+
+    /**
+     * Returns the prefetched page for the given resumption token and removes it from the store. When the page is still
+     * being retrieved this waits until it's finished.
+     * @param resumptionToken encoded resumption token of the page
+     * @return prefetched page, or null if the page was not prefetched or prefetching failed
+     */
+    public ListRecords take(String resumptionToken) {
+        CompletableFuture<ListRecords> page = pages.asMap().remove(resumptionToken);
+        if (page == null) {
+            return null;
+        }
+        try {
+            ListRecords result = page.get();
+            LOG.debug("Using prefetched page for resumption token {}", resumptionToken);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Thread interrupted.", e);
+        } catch (ExecutionException e) {
+            LOG.warn("Prefetching page for resumption token {} failed: {}", resumptionToken, e.getCause().getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Stop all prefetching
+     */
+    public void close() {
+        executor.shutdownNow();
+        pages.invalidateAll();
+    }
+}
@@ -0,0 +1,167 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the keys that are requested concurrently within a short window and loads them with one batch query
+ * (DataLoader-style). The first request of a batch waits at most the window (or until the batch is full), then loads
+ * the batch in its own thread and hands out the results to the other requests of the batch. So no extra threads are
+ * needed and a request waits at most the window plus the duration of the batch query. When no other request is in
+ * progress there is nothing to batch with, so the first request loads its key right away without waiting.
+ *
+ * Every request gets its own value, as requesters may modify it: when a key is requested more than once in a batch,
+ * the duplicates are loaded with a follow-up batch query. Errors of a batch query are thrown to all requests that
+ * didn't get their value yet. The size of every batch is published to Micrometer as <code>oaipmh.batch.size</code>.
+ *
+ * @param <V> type of the loaded values
+ */
+public class MicroBatcher<V> {
+
+    public static final String BATCH_SIZE = "oaipmh.batch.size";
+
+    private static final Logger LOG = LogManager.getLogger(MicroBatcher.class);
+
+    private final BatchLoader<V> loader;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final DistributionSummary batchSizes;
+
+    private final Object lock = new Object();
+    // batch that is still accepting keys (with the results of the requests for each key), null if there is none
+    private Map<String, List<CompletableFuture<Object>>> current;
+    // number of requests that didn't get their value yet
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    /**
+     * Loads a batch of values
+     * @param <V> type of the loaded values
+     */
+    @FunctionalInterface
+    public interface BatchLoader<V> {
+        /**
+         * @param keys keys to load, without duplicates
+         * @return map of key to value, keys that don't have a value are not present in the map
+         * @throws OaiPmhException when the batch could not be loaded
+         */
+        Map<String, V> load(List<String> keys) throws OaiPmhException;
+    }
+
+    /**
+     * Create a new micro-batcher
+     * @param name name of the batcher, used as tag of the batch size metric
+     * @param loader loads a batch of values
+     * @param maxBatchSize maximum number of keys in a batch, a full batch is loaded without waiting for the window
+     * @param windowMicros maximum time (in µs) to wait for other requests before loading a batch
+     */
+    public MicroBatcher(String name, BatchLoader<V> loader, int maxBatchSize, long windowMicros) {
+        this.loader = loader;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+        this.batchSizes = DistributionSummary.builder(BATCH_SIZE)
+                .description("Number of keys loaded in one batch")
+                .tag("batcher", name)
+                .register(Metrics.globalRegistry);
+        LOG.info("Batching {} requests, at most {} per batch waiting at most {} µs", name, this.maxBatchSize, windowMicros);
+    }
+
+    /**
+     * Load the value of a key together with the other keys requested within the window
+     * @param key key to load
+     * @return the value, or null if the loader didn't return a value for the key
+     * @throws OaiPmhException thrown by the loader
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String key) throws OaiPmhException {
+        Map<String, List<CompletableFuture<Object>>> batch;
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        boolean leader = false;
+        try {
+            synchronized (lock) {
+                boolean alone = inProgress.incrementAndGet() == 1;
+                if (current == null) {
+                    current = new LinkedHashMap<>();
+                    leader = true;
+                }
+                batch = current;
+                batch.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+                if (batch.size() >= maxBatchSize || (leader && alone)) {
+                    // full or there is nothing to wait for, let the leader load it right away
+                    current = null;
+                    lock.notifyAll();
+                }
+            }
+            if (leader) {
+                awaitBatch(batch);
+                load(batch);
+            }
+            return (V) RequestCoalescer.await(result);
+        } finally {
+            inProgress.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until the batch is full or the window has passed, after this no keys can be added to the batch
+     */
+    private void awaitBatch(Map<String, List<CompletableFuture<Object>>> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        synchronized (lock) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                while (current == batch && remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                // load what we have, the other requests of the batch are waiting for it
+                Thread.currentThread().interrupt();
+            } finally {
+                if (current == batch) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the keys of the batch, keys that were requested more than once are loaded again until every request has
+     * its own value
+     */
+    private void load(Map<String, List<CompletableFuture<Object>>> batch) {
+        Map<String, List<CompletableFuture<Object>>> remaining = batch;
+        try {
+            while (!remaining.isEmpty()) {
+                List<String> keys = new ArrayList<>(remaining.keySet());
+                batchSizes.record(keys.size());
+                Map<String, V> values = loader.load(keys);
+                Map<String, List<CompletableFuture<Object>>> duplicates = new LinkedHashMap<>();
+                for (Map.Entry<String, List<CompletableFuture<Object>>> entry : remaining.entrySet()) {
+                    List<CompletableFuture<Object>> results = entry.getValue();
+                    results.get(0).complete(values.get(entry.getKey()));
+                    if (results.size() > 1) {
+                        duplicates.put(entry.getKey(), results.subList(1, results.size()));
+                    }
+                }
+                remaining = duplicates;
+            }
+        } catch (OaiPmhException | RuntimeException | Error e) {
+            for (List<CompletableFuture<Object>> results : remaining.values()) {
+                for (CompletableFuture<Object> result : results) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,9 @@ import eu.europeana.oaipmh.model.*;
 import eu.europeana.oaipmh.model.Record;
 import eu.europeana.oaipmh.model.metadata.MetadataFormatsProvider;
 import eu.europeana.oaipmh.model.request.*;
+import eu.europeana.oaipmh.model.response.ListRecordsResponse;
+import eu.europeana.oaipmh.model.response.OAIResponse;
+import eu.europeana.oaipmh.profile.PipelineMetrics;
 import eu.europeana.oaipmh.service.exception.*;
 import eu.europeana.oaipmh.util.DateConverter;
 import eu.europeana.oaipmh.util.ResumptionTokenHelper;
@@ -14,6 +17,7 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
 import java.util.Date;
 
 /**
@@ -36,6 +40,21 @@ public class OaiPmhService extends BaseService {
     @Value("${resumptionTokenTTL}")
     private int resumptionTokenTTL;
 
+    @Value("${prefetchNextPage:false}")
+    private boolean prefetchNextPage;
+
+    @Value("${prefetchMaxPages:20}")
+    private int prefetchMaxPages;
+
+    @Value("${prefetchTTL:60000}")
+    private long prefetchTTL;
+
+    @Value("${prefetchThreads:2}")
+    private int prefetchThreads;
+
+    @Value("${coalesceRequests:false}")
+    private boolean coalesceRequests;
+
     private RecordProvider recordProvider;
 
     private IdentifierProvider identifierProvider;
@@ -46,6 +65,12 @@ public class OaiPmhService extends BaseService {
 
     private SetsProvider setsProvider;
 
+    private ListRecordsPrefetcher prefetcher;
+
+    private RequestCoalescer coalescer;
+
+    private volatile PrerenderedResponse identifyResponse;
+
     public OaiPmhService(RecordProvider recordProvider, IdentifierProvider identifierProvider, IdentifyProvider identifyProvider, MetadataFormatsProvider metadataFormats, SetsProvider setsProvider) {
         super();
         this.recordProvider = recordProvider;
@@ -61,16 +86,34 @@ public class OaiPmhService extends BaseService {
         LOG.info("Records per page: {}", recordsPerPage);
         LOG.info("Identifiers per page: {}", identifiersPerPage);
         LOG.info("Resumption token TTL: {}", resumptionTokenTTL);
+        if (prefetchNextPage) {
+            prefetcher = new ListRecordsPrefetcher(prefetchMaxPages, prefetchTTL, prefetchThreads);
+        }
+        if (coalesceRequests) {
+            LOG.info("Coalescing concurrent identical requests");
+            coalescer = new RequestCoalescer();
+        }
     }
 
     /**
      * Return repository information according to OAI-PMH-protocol (see https://www.openarchives.org/OAI/openarchivesprotocol.html#Identify)
-     * @return
+     * The response is serialized only once for every Identify object returned by the provider, after that only the
+     * responseDate is filled in.
+     * @return UTF-8 bytes of the serialized response
      * @throws OaiPmhException
      */
-    public String getIdentify(IdentifyRequest request) throws OaiPmhException {
+    public byte[] getIdentify(IdentifyRequest request) throws OaiPmhException {
         Identify responseObject = identifyProvider.provideIdentify();
-        return serialize(responseObject.getResponse(request));
+        PrerenderedResponse prerendered = identifyResponse;
+        if (prerendered == null || !prerendered.isFor(responseObject, request.getBaseUrl())) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            serialize(responseObject.getResponse(request), outputStream);
+            prerendered = new PrerenderedResponse(responseObject, request.getBaseUrl(), outputStream.toByteArray());
+            identifyResponse = prerendered;
+        }
+        byte[] response = prerendered.render(new Date());
+        PipelineMetrics.recordResponseSize(request.getVerb(), response.length);
+        return response;
     }
 
     /**
@@ -80,10 +123,23 @@ public class OaiPmhService extends BaseService {
      * @throws OaiPmhException
      */
     public String getRecord(GetRecordRequest request) throws OaiPmhException {
+        return getRecord(request, null);
+    }
+
+    /**
+     * Retrieve record information according to OAI-PMH protocol, for a record of which the version was just looked up
+     * @param request GetRecord request containing all necessary parameters
+     * @param version version of the record returned by {@link #getRecordVersion(GetRecordRequest)}, may be null
+     * @return record information in OAI-PMH (xml)
+     * @throws OaiPmhException
+     */
+    public String getRecord(GetRecordRequest request, RecordVersion version) throws OaiPmhException {
         if (!metadataFormats.canDisseminate(request.getMetadataPrefix())) {
             throw new CannotDisseminateFormatException(request.getMetadataPrefix());
         }
-        Record record = recordProvider.getRecord(request.getIdentifier());
+        Record record = coalesce(RequestCoalescer.key(request.getVerb(), request.getIdentifier()),
+                () -> version == null ? recordProvider.getRecord(request.getIdentifier())
+                        : recordProvider.getRecord(request.getIdentifier(), version));
         if (record == null) {
             throw new IdDoesNotExistException(request.getIdentifier());
         }
@@ -91,6 +147,20 @@ public class OaiPmhService extends BaseService {
         return serialize(responseObject.getResponse(request));
     }
 
+    /**
+     * Returns the version of the record of a GetRecord request, without retrieving the record itself
+     * @param request GetRecord request
+     * @return version of the record, or null if it's unknown or the request can't be answered (in which case
+     * {@link #getRecord(GetRecordRequest)} returns the error)
+     * @throws OaiPmhException when the record doesn't exist or there is a problem retrieving the information
+     */
+    public RecordVersion getRecordVersion(GetRecordRequest request) throws OaiPmhException {
+        if (!metadataFormats.canDisseminate(request.getMetadataPrefix())) {
+            return null;
+        }
+        return recordProvider.getRecordVersion(request.getIdentifier());
+    }
+
     /**
      * Retrieve list of identifiers that match given filter parameters: metadata format, date between from and until and set.
      * When no identifiers were found then NoRecordsMatch error is returned. When resumption token is inside the request
@@ -101,17 +171,29 @@ public class OaiPmhService extends BaseService {
      * @throws OaiPmhException
      */
     public String listIdentifiers(ListIdentifiersRequest request) throws OaiPmhException {
-        ListIdentifiers responseObject = getListIdentifiersObject(request.getMetadataPrefix(),
-                DateConverter.fromIsoDateTime(request.getFrom()),
-                DateConverter.fromIsoDateTime(request.getUntil()),
-                request.getSet(),
-                request.getResumptionToken(),
-                identifiersPerPage);
+        return serialize(getListIdentifiersResponse(request));
+    }
+
+    /**
+     * Retrieve list of identifiers in the same way as {@link #listIdentifiers(ListIdentifiersRequest)}, but return the
+     * response object instead of its serialized form, so it can be streamed to the client.
+     *
+     * @param request request containing all necessary parameters
+     * @return response object containing identifiers matching the given filter parameters or NoRecordsMatch error
+     * @throws OaiPmhException
+     */
+    public OAIResponse getListIdentifiersResponse(ListIdentifiersRequest request) throws OaiPmhException {
+        Date from = DateConverter.fromIsoDateTime(request.getFrom());
+        Date until = DateConverter.fromIsoDateTime(request.getUntil());
+        ListIdentifiers responseObject = coalesce(requestKey(request.getVerb(), request.getMetadataPrefix(),
+                request.getSet(), from, until, request.getResumptionToken()),
+                () -> getListIdentifiersObject(request.getMetadataPrefix(), from, until, request.getSet(),
+                        request.getResumptionToken(), identifiersPerPage));
         if (! responseObject.getHeaders().isEmpty()) {
-            return serialize(responseObject.getResponse(request));
+            return responseObject.getResponse(request);
         }
         OAIError error = new OAIError(ErrorCode.NO_RECORDS_MATCH, "No records found!");
-        return serialize(error.getResponse(request));
+        return error.getResponse(request);
     }
 
     /**
@@ -129,7 +211,7 @@ public class OaiPmhService extends BaseService {
     private ListIdentifiers getListIdentifiersObject(String metadataPrefix, Date from, Date until, String set, String resumptionToken, int pageSize) throws OaiPmhException {
         ListIdentifiers responseObject;
         if (resumptionToken != null) {
-            ResumptionToken validated = validateResumptionToken(resumptionToken);
+            DecodedResumptionToken validated = validateResumptionToken(resumptionToken);
             responseObject = identifierProvider.listIdentifiers(validated, pageSize);
         } else {
             if (!metadataFormats.canDisseminate(metadataPrefix)) {
@@ -151,7 +233,7 @@ public class OaiPmhService extends BaseService {
     public String listSets(ListSetsRequest request) throws OaiPmhException {
         ListSets responseObject;
         if (request.getResumptionToken() != null) {
-            ResumptionToken validated = validateResumptionToken(request.getResumptionToken());
+            DecodedResumptionToken validated = validateResumptionToken(request.getResumptionToken());
             responseObject = setsProvider.listSets(validated);
         } else {
             responseObject = setsProvider.listSets(DateConverter.fromIsoDateTime(request.getFrom()),
@@ -173,21 +255,145 @@ public class OaiPmhService extends BaseService {
      * @throws OaiPmhException
      */
     public String listRecords(ListRecordsRequest request) throws OaiPmhException {
-        ListIdentifiers identifiers = getListIdentifiersObject(request.getMetadataPrefix(),
-                DateConverter.fromIsoDateTime(request.getFrom()),
-                DateConverter.fromIsoDateTime(request.getUntil()),
-                request.getSet(),
-                request.getResumptionToken(),
-                recordsPerPage);
-        if (! identifiers.getHeaders().isEmpty()) {
-            ListRecords responseObject = recordProvider.listRecords(identifiers.getHeaders());
-            if (! responseObject.getRecords().isEmpty()) {
-                responseObject.setResumptionToken(identifiers.getResumptionToken());
-                return serialize(responseObject.getResponse(request));
+        return serialize(getListRecordsResponse(request));
+    }
+
+    /**
+     * Retrieve list of records in the same way as {@link #listRecords(ListRecordsRequest)}, but return the response
+     * object instead of its serialized form, so it can be streamed to the client.
+     *
+     * @param request request containing all necessary parameters
+     * @return response object containing records matching the given filter parameters or NoRecordsMatch error
+     * @throws OaiPmhException
+     */
+    public OAIResponse getListRecordsResponse(ListRecordsRequest request) throws OaiPmhException {
+        Date from = DateConverter.fromIsoDateTime(request.getFrom());
+        Date until = DateConverter.fromIsoDateTime(request.getUntil());
+        ListRecords responseObject = coalesce(requestKey(request.getVerb(), request.getMetadataPrefix(),
+                request.getSet(), from, until, request.getResumptionToken()), () -> {
+            if (prefetcher != null && request.getResumptionToken() != null) {
+                validateResumptionToken(request.getResumptionToken());
+                ListRecords prefetched = prefetcher.take(request.getResumptionToken());
+                if (prefetched != null) {
+                    return prefetched;
+                }
             }
+            return getListRecordsObject(request.getMetadataPrefix(), from, until, request.getSet(),
+                    request.getResumptionToken());
+        });
+        return getListRecordsResponse(request, responseObject);
+    }
+
+    private OAIResponse getListRecordsResponse(ListRecordsRequest request, ListRecords responseObject) {
+        if (responseObject != null && ! responseObject.getRecords().isEmpty()) {
+            prefetchNextPage(responseObject.getResumptionToken());
+            return responseObject.getResponse(request);
         }
         OAIError error = new OAIError(ErrorCode.NO_RECORDS_MATCH, "No records found!");
-        return serialize(error.getResponse(request));
+        return error.getResponse(request);
+    }
+
+    /**
+     * Retrieve list of records in the same way as {@link #listRecords(ListRecordsRequest)}, but write the response one
+     * record at a time. Only the identifiers of the page are retrieved right away (so errors like a bad resumption
+     * token are still thrown before anything is written), the records are retrieved while the response is written.
+     * When requests are coalesced or the page was prefetched the records are already retrieved, so then the response
+     * is only serialized while writing.
+     *
+     * @param request request containing all necessary parameters
+     * @return writer of the response containing records matching the given filter parameters or NoRecordsMatch error
+     * @throws OaiPmhException
+     */
+    public ResponseWriter streamListRecords(ListRecordsRequest request) throws OaiPmhException {
+        if (coalescer != null) {
+            OAIResponse response = getListRecordsResponse(request);
+            return outputStream -> serialize(response, outputStream);
+        }
+        if (prefetcher != null && request.getResumptionToken() != null) {
+            validateResumptionToken(request.getResumptionToken());
+            ListRecords prefetched = prefetcher.take(request.getResumptionToken());
+            if (prefetched != null) {
+                OAIResponse response = getListRecordsResponse(request, prefetched);
+                return outputStream -> serialize(response, outputStream);
+            }
+        }
+
+        Date from = DateConverter.fromIsoDateTime(request.getFrom());
+        Date until = DateConverter.fromIsoDateTime(request.getUntil());
+        ListIdentifiers identifiers = getListIdentifiersObject(request.getMetadataPrefix(), from, until, request.getSet(),
+                request.getResumptionToken(), recordsPerPage);
+        OAIResponse error = new OAIError(ErrorCode.NO_RECORDS_MATCH, "No records found!").getResponse(request);
+        if (identifiers.getHeaders().isEmpty()) {
+            return outputStream -> serialize(error, outputStream);
+        }
+        prefetchNextPage(identifiers.getResumptionToken());
+        ListRecordsResponse response = new ListRecordsResponse(new ListRecords(null, identifiers.getResumptionToken()), request);
+        return outputStream -> {
+            if (!serialize(response, recordProvider, identifiers.getHeaders(), outputStream)) {
+                serialize(error, outputStream);
+            }
+        };
+    }
+
+    /**
+     * Prepare the ListRecords object according to the specified parameters.
+     *
+     * @param metadataPrefix metadata prefix
+     * @param from start date
+     * @param until end date
+     * @param set dataset identifier
+     * @param resumptionToken resumption token (encoded)
+     * @return ListRecords object containing max recordsPerPage number of records, or null when there are no identifiers
+     * @throws OaiPmhException
+     */
+    private ListRecords getListRecordsObject(String metadataPrefix, Date from, Date until, String set, String resumptionToken) throws OaiPmhException {
+        ListIdentifiers identifiers = getListIdentifiersObject(metadataPrefix, from, until, set, resumptionToken, recordsPerPage);
+        if (identifiers.getHeaders().isEmpty()) {
+            return null;
+        }
+        ListRecords responseObject = recordProvider.listRecords(identifiers.getHeaders());
+        responseObject.setResumptionToken(identifiers.getResumptionToken());
+        return responseObject;
+    }
+
+    /**
+     * When coalescing is enabled concurrent requests with the same key share the result of the loader, otherwise the
+     * loader is simply called. Only the response objects are shared, every request serializes its own response.
+     */
+    private <T> T coalesce(String key, RequestCoalescer.Loader<T> loader) throws OaiPmhException {
+        if (coalescer == null) {
+            return loader.load();
+        }
+        return coalescer.execute(key, loader);
+    }
+
+    /**
+     * Key of a ListIdentifiers or ListRecords request. Dates are used as parsed, so different notations of the same
+     * date result in the same key.
+     */
+    private static String requestKey(String verb, String metadataPrefix, String set, Date from, Date until, String resumptionToken) {
+        return RequestCoalescer.key(verb, metadataPrefix, set, from == null ? null : from.getTime(),
+                until == null ? null : until.getTime(), resumptionToken);
+    }
+
+    /**
+     * When prefetching is enabled start retrieving the page belonging to the given resumption token in the background
+     *
+     * @param resumptionToken resumption token returned to the client, may be null
+     */
+    private void prefetchNextPage(ResumptionToken resumptionToken) {
+        if (prefetcher != null && resumptionToken != null && resumptionToken.getValue() != null) {
+            String token = resumptionToken.getValue();
+            String verb = PipelineMetrics.getVerb();
+            prefetcher.prefetch(token, () -> {
+                String previousVerb = PipelineMetrics.setVerb(verb);
+                try {
+                    return getListRecordsObject(null, null, null, null, token);
+                } finally {
+                    PipelineMetrics.setVerb(previousVerb);
+                }
+            });
+        }
     }
 
     /**
@@ -198,8 +404,8 @@ public class OaiPmhService extends BaseService {
      * @return decoded resumption token ready to be used by the internal request to IdentifierProvider
      * @throws BadResumptionToken
      */
-    private ResumptionToken validateResumptionToken(String resumptionToken) throws BadResumptionToken {
-        ResumptionToken temporaryToken;
+    private DecodedResumptionToken validateResumptionToken(String resumptionToken) throws BadResumptionToken {
+        DecodedResumptionToken temporaryToken;
         try {
             temporaryToken = ResumptionTokenHelper.decodeResumptionToken(resumptionToken);
         } catch (IllegalArgumentException e) {
@@ -214,6 +420,9 @@ public class OaiPmhService extends BaseService {
     @PreDestroy
     private void close() {
         LOG.info("Closing OAI-PMH service...");
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
         identifierProvider.close();
         recordProvider.close();
         LOG.info("OAI-PMH service closed.");
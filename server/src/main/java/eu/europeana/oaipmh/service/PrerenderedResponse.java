@@ -0,0 +1,75 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.util.DateConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Serialized response of which only the responseDate differs per request. The response is serialized once and split
+ * around the content of the responseDate element, so creating a new response only requires formatting the date and
+ * copying the bytes.
+ */
+final class PrerenderedResponse {
+
+    private static final byte[] RESPONSE_DATE_START = "<responseDate>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESPONSE_DATE_END = "</responseDate>".getBytes(StandardCharsets.UTF_8);
+
+    private final Object source;
+    private final String baseUrl;
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    /**
+     * @param source object the response was created from
+     * @param baseUrl base url used in the request element of the response
+     * @param serialized serialized response (UTF-8), it must contain a responseDate element
+     */
+    PrerenderedResponse(Object source, String baseUrl, byte[] serialized) {
+        int start = indexOf(serialized, RESPONSE_DATE_START, 0);
+        int end = start < 0 ? -1 : indexOf(serialized, RESPONSE_DATE_END, start);
+        if (end < 0) {
+            throw new IllegalArgumentException("Serialized response doesn't contain a responseDate");
+        }
+        this.source = source;
+        this.baseUrl = baseUrl;
+        this.prefix = new byte[start + RESPONSE_DATE_START.length];
+        System.arraycopy(serialized, 0, prefix, 0, prefix.length);
+        this.suffix = new byte[serialized.length - end];
+        System.arraycopy(serialized, end, suffix, 0, suffix.length);
+    }
+
+    /**
+     * @return true if this response was created from the provided object (same instance) and base url
+     */
+    boolean isFor(Object source, String baseUrl) {
+        return this.source == source && Objects.equals(this.baseUrl, baseUrl);
+    }
+
+    /**
+     * @param responseDate date to use as responseDate
+     * @return UTF-8 bytes of the complete response
+     */
+    byte[] render(Date responseDate) {
+        byte[] date = DateConverter.toIsoDate(responseDate).getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[prefix.length + date.length + suffix.length];
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        System.arraycopy(date, 0, result, prefix.length, date.length);
+        System.arraycopy(suffix, 0, result, prefix.length + date.length, suffix.length);
+        return result;
+    }
+
+    static int indexOf(byte[] data, byte[] pattern, int fromIndex) {
+        for (int i = fromIndex; i <= data.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,136 @@
+package eu.europeana.oaipmh.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the ids of all records in the database. When the filter contains an id the record probably exists,
+ * when it doesn't the record doesn't exist unless it was added to the database after the id was loaded in the filter.
+ *
+ * Ids can be added concurrently while the filter is being used, so records that were added to the database after the
+ * filter was built can be added later. Removed records can only be dropped by building a new filter.
+ */
+public class RecordIdFilter {
+
+    public static final String LOOKUPS = "oaipmh.record.idfilter.lookups";
+
+    private static final String RESULT_TAG = "result";
+
+    private static final Counter REJECTED = counter("rejected");
+    private static final Counter PASSED = counter("passed");
+
+    private final AtomicLongArray bits;
+    private final long nrBits;
+    private final int nrHashes;
+    private final long created;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Create a new empty filter
+     * @param expectedIds number of ids that the filter is expected to contain
+     * @param falsePositiveRate rate of lookups for unknown ids that should pass the filter once it contains the expected
+     *                          number of ids, for example 0.01
+     */
+    public RecordIdFilter(long expectedIds, double falsePositiveRate) {
+        long n = Math.max(1, expectedIds);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8L, (m + Long.SIZE - 1) / Long.SIZE);
+        this.bits = new AtomicLongArray(words);
+        this.nrBits = (long) words * Long.SIZE;
+        this.nrHashes = Math.max(1, (int) Math.round((double) nrBits / n * Math.log(2)));
+        this.created = System.currentTimeMillis();
+    }
+
+    private static Counter counter(String result) {
+        return Counter.builder(LOOKUPS)
+                .description("Record id lookups in the bloom filter, rejected ids don't exist")
+                .tag(RESULT_TAG, result)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Add a record id
+     * @param recordId record id (without ${identifierPrefix})
+     */
+    public void put(String recordId) {
+        long hash = hash(recordId);
+        long step = (hash >>> 32) | 1;
+        for (int i = 0; i < nrHashes; i++) {
+            long bit = bitIndex(hash + i * step);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * Check if a record may exist
+     * @param recordId record id (without ${identifierPrefix})
+     * @return false if the record definitely doesn't exist, true if it probably exists
+     */
+    public boolean mightContain(String recordId) {
+        long hash = hash(recordId);
+        long step = (hash >>> 32) | 1;
+        for (int i = 0; i < nrHashes; i++) {
+            long bit = bitIndex(hash + i * step);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                REJECTED.increment();
+                return false;
+            }
+        }
+        PASSED.increment();
+        return true;
+    }
+
+    /**
+     * Bit for the i-th hash function, derived from one 64-bit hash by double hashing (Kirsch-Mitzenmacher)
+     */
+    private long bitIndex(long combinedHash) {
+        return (combinedHash & Long.MAX_VALUE) % nrBits;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters followed by the MurmurHash3 finalizer to spread the bits
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return time (in ms since epoch) that the filter was created
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return number of ids added to the filter (ids that were added more than once are counted more than once)
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return memory used by the filter in bytes
+     */
+    public long getSizeInBytes() {
+        return nrBits / Byte.SIZE;
+    }
+}
@@ -23,6 +23,28 @@ public interface RecordProvider extends ClosableProvider {
      */
     Record getRecord(String id) throws OaiPmhException;
 
+    /**
+     * Returns the version of the record with the supplied id, without retrieving the record itself. This is used to
+     * answer conditional GetRecord requests.
+     * @param id identifier of the record
+     * @return version of the record, or null if the provider can't determine this cheaply
+     * @throws OaiPmhException when there is a problem retrieving the information (e.g. IdDoesNotExistException)
+     */
+    default RecordVersion getRecordVersion(String id) throws OaiPmhException {
+        return null;
+    }
+
+    /**
+     * Returns the record information of the record with the supplied id, of which the version was just looked up
+     * @param id identifier of the record to retrieve
+     * @param version version of the record returned by {@link #getRecordVersion(String)}
+     * @return String with record information (in xml)
+     * @throws OaiPmhException when there is a problem retrieving the information (e.g. IdDoesNotExistException)
+     */
+    default Record getRecord(String id, RecordVersion version) throws OaiPmhException {
+        return getRecord(id);
+    }
+
     /**
      * Checks whether the record specified by the given identifiers exists. Throws IdDoesNotExistException in case it doesn't exist.
      * @param id record identifier
@@ -38,4 +60,28 @@ public interface RecordProvider extends ClosableProvider {
      * @throws OaiPmhException
      */
     ListRecords listRecords(List<Header> identifiers) throws OaiPmhException;
+
+    /**
+     * Passes the records of the specified identifiers to the consumer, in the order of the identifiers. This is used
+     * to stream ListRecords responses, providers can override it to retrieve the records in small chunks so the
+     * records of a whole page don't have to be kept in memory. By default all records are retrieved at once with
+     * {@link #listRecords(List)}.
+     *
+     * @param identifiers list of headers with identifiers
+     * @param consumer consumer that receives the records
+     * @throws OaiPmhException when there is a problem retrieving the records, or thrown by the consumer
+     */
+    default void listRecords(List<Header> identifiers, RecordConsumer consumer) throws OaiPmhException {
+        for (Record record : listRecords(identifiers).getRecords()) {
+            consumer.accept(record);
+        }
+    }
+
+    /**
+     * Receives records that are retrieved by {@link #listRecords(List, RecordConsumer)}
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(Record record) throws OaiPmhException;
+    }
 }
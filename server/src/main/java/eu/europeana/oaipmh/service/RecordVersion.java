@@ -0,0 +1,40 @@
+package eu.europeana.oaipmh.service;
+
+import java.util.Date;
+
+/**
+ * Identifies the version of a record without retrieving the record itself, used to answer conditional GetRecord
+ * requests. Record providers can extend this class to hand over what they looked up to determine the version to the
+ * retrieval of the record (see {@link RecordProvider#getRecord(String, RecordVersion)}).
+ */
+public class RecordVersion {
+
+    private final Date lastModified;
+    private final String tag;
+
+    /**
+     * Create a new record version
+     * @param lastModified date at which the record was last modified
+     * @param tag identifies the version of data that is part of the record, but of which the changes don't update
+     *            the last modification date (e.g. the technical metadata of web resources), null if there is none
+     */
+    public RecordVersion(Date lastModified, String tag) {
+        this.lastModified = lastModified;
+        this.tag = tag;
+    }
+
+    /**
+     * @return date at which the record was last modified
+     */
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the version of the data of which the changes don't update the last modification date, null if the last
+     * modification date covers all data of the record
+     */
+    public String getTag() {
+        return tag;
+    }
+}
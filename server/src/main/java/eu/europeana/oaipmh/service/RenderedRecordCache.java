@@ -0,0 +1,122 @@
+package eu.europeana.oaipmh.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded in-memory cache of the rendered EDM metadata of records. Entries are keyed by record id and store the
+ * last update timestamp of the record, so a record that was changed will never be served from an older entry. Not
+ * all changes update the timestamp (e.g. new technical metadata of the web resources), so entries also expire a
+ * fixed time after they were written.
+ * The cache is weighted by the size of the stored EDM in bytes. EDM is stored uncompressed, because cached EDM is
+ * embedded in a larger response that is compressed as a whole (see CompressionFilter).
+ * Hit, miss and eviction statistics are published to Micrometer under the cache name <code>edm</code>.
+ */
+public class RenderedRecordCache {
+
+    private static final Logger LOG = LogManager.getLogger(RenderedRecordCache.class);
+
+    private static final String CACHE_NAME = "edm";
+    private static final long   BYTES_IN_MB = 1024L * 1024L;
+    // approximate memory used by an entry besides the record id and the EDM
+    private static final int    ENTRY_OVERHEAD = 64;
+
+    private final Cache<String, Entry> cache;
+
+    /**
+     * Create a new cache of which entries are only evicted when the cache is full
+     * @param maxSizeMB maximum size of all cached EDM in megabytes
+     */
+    public RenderedRecordCache(long maxSizeMB) {
+        this(maxSizeMB, 0);
+    }
+
+    /**
+     * Create a new cache
+     * @param maxSizeMB maximum size of all cached EDM in megabytes
+     * @param expireAfterWriteMillis time (in ms) after which an entry expires, 0 or less to only evict entries when
+     *                               the cache is full
+     */
+    public RenderedRecordCache(long maxSizeMB, long expireAfterWriteMillis) {
+        Caffeine<String, Entry> builder = Caffeine.newBuilder()
+                .maximumWeight(maxSizeMB * BYTES_IN_MB)
+                .weigher((String key, Entry entry) -> key.length() + entry.edm.length + ENTRY_OVERHEAD)
+                .recordStats();
+        if (expireAfterWriteMillis > 0) {
+            builder.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder.build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, CACHE_NAME);
+        LOG.info("Created EDM cache with maximum size of {} MB, entries expire after {} ms", maxSizeMB, expireAfterWriteMillis);
+    }
+
+    /**
+     * Returns the cached EDM of a record
+     * @param recordId id of the record (without ${identifierPrefix})
+     * @param timestampUpdated last update timestamp of the record, may be null
+     * @return cached EDM, or null if the record (with this timestamp) is not in the cache
+     */
+    public String get(String recordId, Date timestampUpdated) {
+        Entry entry = cache.getIfPresent(recordId);
+        if (entry == null || entry.timestampUpdated != getTime(timestampUpdated)) {
+            return null;
+        }
+        return new String(entry.edm, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if the cache has EDM of a record, without checking if it is up-to-date. When it doesn't, there is no need
+     * to look up the last update timestamp of the record before rendering it.
+     * @param recordId id of the record (without ${identifierPrefix})
+     * @return true if the cache has EDM of the record, of any timestamp
+     */
+    public boolean contains(String recordId) {
+        return cache.asMap().containsKey(recordId);
+    }
+
+    /**
+     * Adds the EDM of a record to the cache
+     * @param recordId id of the record (without ${identifierPrefix})
+     * @param timestampUpdated last update timestamp of the record, may be null
+     * @param edm rendered EDM of the record
+     */
+    public void put(String recordId, Date timestampUpdated, String edm) {
+        if (edm != null) {
+            cache.put(recordId, new Entry(getTime(timestampUpdated), edm.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * @return the number of entries currently in the cache
+     */
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    private static long getTime(Date timestampUpdated) {
+        return timestampUpdated == null ? 0L : timestampUpdated.getTime();
+    }
+
+    /**
+     * Stored EDM of a record, an entry is replaced when the record is rendered again with a new timestamp
+     */
+    private static final class Entry {
+
+        private final long timestampUpdated;
+        private final byte[] edm;
+
+        Entry(long timestampUpdated, byte[] edm) {
+            this.timestampUpdated = timestampUpdated;
+            this.edm = edm;
+        }
+    }
+}
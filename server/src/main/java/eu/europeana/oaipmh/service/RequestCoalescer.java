@@ -0,0 +1,106 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets concurrent identical requests share one computation (single-flight). The first request for a key does the
+ * work, requests with the same key that arrive while it's in progress wait for and get the same result (or error).
+ * Nothing is kept after the computation is finished, so a request that arrives later does the work again.
+ */
+public class RequestCoalescer {
+
+    private static final Logger LOG = LogManager.getLogger(RequestCoalescer.class);
+
+    private static final String KEY_SEPARATOR = "|";
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Work that is shared by identical requests
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws OaiPmhException;
+    }
+
+    /**
+     * Create the key of a request
+     * @param verb OAI-PMH verb of the request
+     * @param parameters (normalized) parameters of the request that determine the result, may contain null values
+     * @return key of the request
+     */
+    public static String key(String verb, Object... parameters) {
+        StringBuilder key = new StringBuilder(verb);
+        for (Object parameter : parameters) {
+            key.append(KEY_SEPARATOR).append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return the result of the loader, or when a request with the same key is already in progress wait for its result
+     * @param key key of the request, see {@link #key(String, Object...)}
+     * @param loader does the work when there is no request with the same key in progress
+     * @return result of the loader
+     * @throws OaiPmhException thrown by the loader (of the request that did the work)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Loader<T> loader) throws OaiPmhException {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, result);
+        if (existing != null) {
+            LOG.debug("Waiting for identical request {} in progress", key);
+            return (T) await(existing);
+        }
+        try {
+            T value = loader.load();
+            result.complete(value);
+            return value;
+        } catch (OaiPmhException | RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+    }
+
+    /**
+     * Wait for a result that is computed by another thread and rethrow its error as it was thrown
+     */
+    static Object await(CompletableFuture<Object> result) throws OaiPmhException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException("Interrupted while waiting for result");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OaiPmhException) {
+                throw (OaiPmhException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new InternalServerErrorException("Error retrieving data");
+        }
+    }
+
+    /**
+     * @return number of requests that are in progress
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -1,5 +1,6 @@
 package eu.europeana.oaipmh.service;
 
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
 import eu.europeana.oaipmh.model.Header;
 import eu.europeana.oaipmh.model.ListIdentifiers;
 import eu.europeana.oaipmh.model.ResumptionToken;
@@ -17,9 +18,13 @@ import org.springframework.beans.factory.annotation.Value;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import static eu.europeana.oaipmh.util.SolrConstants.*;
 
@@ -32,9 +37,26 @@ public class SearchApi extends SolrBasedProvider implements IdentifierProvider {
 
     private static final Date DEFAULT_IDENTIFIER_TIMESTAMP = DateConverter.fromIsoDateTime("1970-01-01T00:00:00Z");
 
+    private static final Set<String> DATE_ROUNDING_UNITS = new HashSet<>(Arrays.asList("YEAR", "MONTH", "DAY", "HOUR", "MINUTE"));
+
     @Value("#{T(eu.europeana.oaipmh.util.DateConverter).fromIsoDateTime('${defaultIdentifierTimestamp}')}")
     private Date defaultIdentifierTimestamp;
 
+    // Solr date math unit used to round date range filters so they can be reused from the filter cache, empty to not round
+    @Value("${solrDateRangeRounding:}")
+    private String dateRangeRounding;
+
+    // resolves set identifiers to the full set names, may be null
+    private SetsProvider setsProvider;
+
+    /**
+     * @param setsProvider used to filter records on the exact names of a set instead of on the set identifier prefix
+     */
+    @Override
+    public void setSetsProvider(SetsProvider setsProvider) {
+        this.setsProvider = setsProvider;
+    }
+
     /**
      * Initialize default timestamp.
      */
@@ -43,6 +65,13 @@ public class SearchApi extends SolrBasedProvider implements IdentifierProvider {
         if (defaultIdentifierTimestamp == null) {
             defaultIdentifierTimestamp = DEFAULT_IDENTIFIER_TIMESTAMP;
         }
+        if (dateRangeRounding != null && !dateRangeRounding.isEmpty()) {
+            dateRangeRounding = dateRangeRounding.trim().toUpperCase(Locale.ROOT);
+            if (!DATE_ROUNDING_UNITS.contains(dateRangeRounding)) {
+                LOG.warn("Date range rounding {} is not supported, use one of {}", dateRangeRounding, DATE_ROUNDING_UNITS);
+                dateRangeRounding = null;
+            }
+        }
     }
 
     /**
@@ -74,15 +103,15 @@ public class SearchApi extends SolrBasedProvider implements IdentifierProvider {
      * @throws OaiPmhException
      */
     @Override
-    public ListIdentifiers listIdentifiers(ResumptionToken resumptionToken, int pageSize) throws OaiPmhException {
+    public ListIdentifiers listIdentifiers(DecodedResumptionToken resumptionToken, int pageSize) throws OaiPmhException {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("List identifiers: from {}, until {}, set {}, metadataPrefix {}", ResumptionTokenHelper.getFrom(resumptionToken.getValue()), DateConverter.fromIsoDateTime(ResumptionTokenHelper.getUntil(resumptionToken.getValue())), ResumptionTokenHelper.getSet(resumptionToken.getValue()), ResumptionTokenHelper.getFormat(resumptionToken.getValue()));
+            LOG.debug("List identifiers: from {}, until {}, set {}, metadataPrefix {}", resumptionToken.getFrom(), resumptionToken.getUntil(), resumptionToken.getSet(), resumptionToken.getFormat());
         }
-        return listIdentifiers(ResumptionTokenHelper.getFormat(resumptionToken.getValue()),
-                DateConverter.fromIsoDateTime(ResumptionTokenHelper.getFrom(resumptionToken.getValue())),
-                DateConverter.fromIsoDateTime(ResumptionTokenHelper.getUntil(resumptionToken.getValue())),
-                ResumptionTokenHelper.getSet(resumptionToken.getValue()),
-                resumptionToken.getCursor() + pageSize, ResumptionTokenHelper.getCursorMark(resumptionToken.getValue()), pageSize);
+        return listIdentifiers(resumptionToken.getFormat(),
+                resumptionToken.getFrom(),
+                resumptionToken.getUntil(),
+                resumptionToken.getSet(),
+                resumptionToken.getCursor() + pageSize, resumptionToken.getCursorMark(), pageSize);
     }
 
     /**
@@ -98,11 +127,13 @@ public class SearchApi extends SolrBasedProvider implements IdentifierProvider {
      * @throws OaiPmhException
      */
     private ListIdentifiers listIdentifiers(String metadataPrefix, Date from, Date until, String set, long cursor, String previousCursorMark, int pageSize) throws OaiPmhException {
-        QueryResponse response = executeQuery(SolrQueryBuilder.listIdentifiers(from, until, set, previousCursorMark, pageSize));
+        List<String> setNames = set == null || setsProvider == null ? null : setsProvider.getSetNames(set);
+        QueryResponse response = executeQuery(SolrQueryBuilder.listIdentifiers(from, until, set, setNames,
+                dateRangeRounding, previousCursorMark, pageSize));
         ListIdentifiers result = responseToListIdentifiers(response);
         if (shouldCreateResumptionToken(response, cursor, previousCursorMark)) {
-            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(DateConverter.toIsoDate(from),
-                    DateConverter.toIsoDate(until),
+            ResumptionToken resumptionToken = ResumptionTokenHelper.createResumptionToken(from,
+                    until,
                     set,
                     metadataPrefix,
                     new Date(System.currentTimeMillis() + getResumptionTokenTTL()),
@@ -0,0 +1,85 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.model.Set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of all sets (datasets) in the index, sorted by set name. The catalogue can't tell which sets have
+ * records that were updated in a date range, so ListSets requests with from or until dates are not served from it.
+ *
+ * The catalogue also maps set identifiers to the full set (dataset) names, so records can be filtered on the exact names
+ * of a set instead of on the set identifier prefix.
+ */
+public final class SetCatalogue {
+
+    private final Set[] sets;
+    private final Map<String, List<String>> setNames;
+    private final long created;
+
+    private SetCatalogue(Set[] sets, long created) {
+        this.sets = sets;
+        this.created = created;
+        this.setNames = new HashMap<>(sets.length * 2);
+        for (Set set : sets) {
+            setNames.computeIfAbsent(set.getSetSpec(), spec -> new ArrayList<>(1)).add(set.getSetName());
+        }
+    }
+
+    /**
+     * @return time (in ms) when this snapshot was created
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return number of sets in the catalogue
+     */
+    public int size() {
+        return sets.length;
+    }
+
+    /**
+     * @return all sets, sorted by name
+     */
+    public List<Set> getSets() {
+        return Collections.unmodifiableList(Arrays.asList(sets));
+    }
+
+    /**
+     * @param setSpec set identifier
+     * @return names of all sets with this identifier (usually just one), empty if the set is not in the catalogue
+     */
+    public List<String> getSetNames(String setSpec) {
+        List<String> names = setNames.get(setSpec);
+        return names == null ? Collections.emptyList() : Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Builder used to create the catalogue, sets should be added in the order of their names
+     */
+    public static class Builder {
+        private final List<Set> sets = new ArrayList<>();
+
+        /**
+         * Add a set to the catalogue
+         * @param setSpec set identifier
+         * @param setName set name
+         * @return this builder
+         */
+        public Builder add(String setSpec, String setName) {
+            sets.add(new Set(setSpec, setName));
+            return this;
+        }
+
+        public SetCatalogue build() {
+            return new SetCatalogue(sets.toArray(new Set[0]), System.currentTimeMillis());
+        }
+    }
+}
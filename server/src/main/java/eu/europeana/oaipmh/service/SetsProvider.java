@@ -1,10 +1,11 @@
 package eu.europeana.oaipmh.service;
 
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
 import eu.europeana.oaipmh.model.ListSets;
-import eu.europeana.oaipmh.model.ResumptionToken;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
 
 import java.util.Date;
+import java.util.List;
 
 public interface SetsProvider {
     /**
@@ -21,5 +22,16 @@ public interface SetsProvider {
      * @return object with a list of set objects from the next page
      * @throws OaiPmhException
      */
-    ListSets listSets(ResumptionToken resumptionToken) throws OaiPmhException;
+    ListSets listSets(DecodedResumptionToken resumptionToken) throws OaiPmhException;
+
+    /**
+     * Returns the full names of the set(s) with the given identifier, so records can be filtered on the exact set names.
+     *
+     * @param setSpec set identifier
+     * @return set names, or null when the names are not known (in which case records should be filtered on the set
+     * identifier prefix)
+     */
+    default List<String> getSetNames(String setSpec) {
+        return null;
+    }
 }
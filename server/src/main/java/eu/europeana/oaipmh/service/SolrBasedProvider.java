@@ -1,10 +1,14 @@
 package eu.europeana.oaipmh.service;
 
 import eu.europeana.metis.utils.ExternalRequestUtil;
+import eu.europeana.oaipmh.profile.PipelineMetrics;
+import eu.europeana.oaipmh.profile.SolrFilterMetrics;
 import eu.europeana.oaipmh.profile.TrackTime;
 import eu.europeana.oaipmh.service.exception.BadArgumentException;
 import eu.europeana.oaipmh.service.exception.ErrorCode;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import eu.europeana.oaipmh.service.exception.ServiceUnavailableException;
+import eu.europeana.oaipmh.util.CircuitBreaker;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -61,8 +65,10 @@ public class SolrBasedProvider extends BaseProvider implements ClosableProvider
 
     @TrackTime
     protected QueryResponse executeQuery(SolrQuery query) throws OaiPmhException {
+        long start = System.nanoTime();
+        SolrFilterMetrics.record(query.getFilterQueries());
         try {
-            return ExternalRequestUtil.retryableExternalRequest(() -> {
+            return ExternalRequestUtil.retryableBackendRequest(ExternalRequestUtil.SOLR, () -> {
                 try {
                     return client.query(query);
                 } catch(SolrException e){
@@ -74,8 +80,12 @@ public class SolrBasedProvider extends BaseProvider implements ClosableProvider
             });
         } catch(SolrException e){
             throw new BadArgumentException(e.getMessage());
+        } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+            throw new ServiceUnavailableException(e.getMessage());
         } catch (RuntimeException e) {
             throw new OaiPmhException(e.getMessage(), ErrorCode.INTERNAL_ERROR);
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.Stage.SOLR_QUERY, null, System.nanoTime() - start);
         }
     }
 
@@ -65,6 +65,16 @@ public class GlobalExceptionHandler extends BaseService {
         return handleException(e, request, HttpStatus.METHOD_NOT_ALLOWED);
     }
 
+    /**
+     * Handle requests that are rejected because the server is overloaded
+     * @param e
+     * @throws OaiPmhException
+     */
+    @ExceptionHandler({ServiceUnavailableException.class})
+    public ResponseEntity<String> handleServiceUnavailable(OaiPmhException e, HttpServletRequest request) throws OaiPmhException {
+        return handleException(e, request, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     /**
      * Handle all other 'internal server' problems
      * @param e
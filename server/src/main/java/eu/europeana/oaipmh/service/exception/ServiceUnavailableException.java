@@ -0,0 +1,24 @@
+package eu.europeana.oaipmh.service.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Error that is thrown when a request is rejected because the server is overloaded or a backend is not available,
+ * so clients can try again later.
+ * It extends {@link InternalServerErrorException} so it can be thrown wherever a database problem can occur.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends InternalServerErrorException {
+
+    private static final long serialVersionUID = 4473911540375068042L;
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    @Override
+    public boolean doLog() {
+        return false;
+    }
+}
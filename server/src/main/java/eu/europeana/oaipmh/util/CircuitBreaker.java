@@ -0,0 +1,170 @@
+package eu.europeana.oaipmh.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker for calls to an external service like a database. After a number of consecutive failures the
+ * breaker opens and calls fail immediately with a {@link CircuitBreakerOpenException}, instead of every request
+ * waiting for (and retrying) a service that is down. When the open period has passed one trial call is let through
+ * (half-open): when it succeeds the breaker closes again, when it fails the breaker opens for another period.
+ *
+ * The state is kept in atomics, so checking the breaker doesn't block. The state (0 = closed, 1 = half-open,
+ * 2 = open) is published to Micrometer as <code>oaipmh.circuitbreaker.state</code> and rejected calls as
+ * <code>oaipmh.circuitbreaker.rejected</code>, both tagged with the name of the backend.
+ */
+public class CircuitBreaker {
+
+    public static final String STATE = "oaipmh.circuitbreaker.state";
+    public static final String REJECTED = "oaipmh.circuitbreaker.rejected";
+
+    private static final Logger LOG = LogManager.getLogger(CircuitBreaker.class);
+
+    /**
+     * State of the circuit breaker
+     */
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String backend;
+    private volatile int failureThreshold;
+    private volatile long openDurationMillis;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final Counter rejected;
+
+    /**
+     * Create a new circuit breaker
+     *
+     * @param backend name of the backend, used in log messages and as tag of the metrics
+     * @param failureThreshold number of consecutive failures after which the breaker opens, 0 or less to never open
+     * @param openDurationMillis time (in ms) the breaker stays open before a trial call is let through
+     */
+    public CircuitBreaker(String backend, int failureThreshold, long openDurationMillis) {
+        this.backend = backend;
+        configure(failureThreshold, openDurationMillis);
+        Gauge.builder(STATE, state, s -> s.get().ordinal())
+                .description("State of the circuit breaker: 0 = closed, 1 = half-open, 2 = open")
+                .tag("backend", backend)
+                .strongReference(true)
+                .register(Metrics.globalRegistry);
+        this.rejected = Counter.builder(REJECTED)
+                .description("Calls rejected because the circuit breaker was open")
+                .tag("backend", backend)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Change the settings of the breaker
+     *
+     * @param failureThreshold number of consecutive failures after which the breaker opens, 0 or less to never open
+     * @param openDurationMillis time (in ms) the breaker stays open before a trial call is let through
+     */
+    public final void configure(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = Math.max(0, openDurationMillis);
+    }
+
+    /**
+     * Check if a call may be made. When the open period has passed this returns true for exactly one caller, the
+     * trial call, which must report its outcome with {@link #onSuccess()} or {@link #onFailure()}. If it doesn't,
+     * another trial call is let through after the next period.
+     *
+     * @return true if the call may be made, false if it should fail fast
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        // one trial call per open period, also when the previous trial call never reported back
+        long opened = openedAt.get();
+        long now = System.currentTimeMillis();
+        if (now - opened >= openDurationMillis && openedAt.compareAndSet(opened, now)) {
+            state.compareAndSet(current, State.HALF_OPEN);
+            LOG.info("Circuit breaker for {} half-open, trying one request", backend);
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Check that a call may be made
+     *
+     * @throws CircuitBreakerOpenException when the breaker is open
+     */
+    public void acquire() {
+        if (!allowRequest()) {
+            throw new CircuitBreakerOpenException(backend);
+        }
+    }
+
+    /**
+     * Report a call that got a response from the backend
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED && state.getAndSet(State.CLOSED) != State.CLOSED) {
+            LOG.info("Circuit breaker for {} closed", backend);
+        }
+    }
+
+    /**
+     * Report a call that failed because the backend was not available
+     */
+    public void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if (current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold)) {
+            // set before opening, so nobody sees the breaker open with an old opening time
+            openedAt.set(System.currentTimeMillis());
+            if (state.compareAndSet(current, State.OPEN)) {
+                LOG.warn("Circuit breaker for {} opened after {} consecutive failures, failing fast for {} ms",
+                        backend, failures, openDurationMillis);
+            }
+        }
+    }
+
+    /**
+     * @return current state of the breaker
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return name of the backend
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * Thrown when a call is not made because the circuit breaker of the backend is open
+     */
+    public static class CircuitBreakerOpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 2817066325154711893L;
+
+        /**
+         * @param backend name of the backend that is not available
+         */
+        public CircuitBreakerOpenException(String backend) {
+            super("Circuit breaker for " + backend + " is open, backend is not available");
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package eu.europeana.oaipmh.util;
 
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.FacetParams;
 
+import java.util.Collection;
 import java.util.Date;
 
 import static eu.europeana.oaipmh.util.SolrConstants.*;
@@ -18,12 +20,33 @@ public class SolrQueryBuilder {
 
     private static final String FQ_TEMPLATE = "%s:%s_*";
 
+    private static final String TERM_FQ_TEMPLATE = "{!term f=%s}%s";
+
+    private static final String TERMS_FQ_TEMPLATE = "{!terms f=%s}%s";
+
+    private static final String TERMS_SEPARATOR = ",";
+
     private static final String DATE_RANGE_TEMPLATE = "%s:[%s TO %s]";
 
+    // rounded range (date math), the upper bound is exclusive because it's rounded up to the next unit
+    private static final String ROUNDED_DATE_RANGE_TEMPLATE = "%s:[%s TO %s}";
+
+    // exact range, it's unique for almost every request so it's not cached and evaluated after the (cached) other filters
+    private static final String EXACT_DATE_RANGE_TEMPLATE = "{!cache=false cost=%d}" + DATE_RANGE_TEMPLATE;
+
+    private static final int EXACT_DATE_RANGE_COST = 100;
+
     private static final String START_CURSOR = "*";
 
     private static final String ANY_DATE = "*";
 
+    private static final String JSON_FACET_PARAM = "json.facet";
+
+    /** Name of the JSON facet containing all sets, see {@link #setCatalogue()} */
+    public static final String SET_CATALOGUE_FACET = "sets";
+
+    private static final String SET_CATALOGUE_TEMPLATE = "{" + SET_CATALOGUE_FACET + ":{type:terms,field:%s,limit:-1,sort:\"index asc\"}}";
+
     private SolrQueryBuilder() {}
 
 
@@ -39,11 +62,46 @@ public class SolrQueryBuilder {
      * @return prepared query
      */
     public static SolrQuery listIdentifiers(Date from, Date until, String set, String cursorMark, int rows) {
+        return listIdentifiers(from, until, set, null, cursorMark, rows);
+    }
+
+    /**
+     * Create Solr query in the same way as {@link #listIdentifiers(Date, Date, String, String, int)}, but filter on
+     * the exact names of the set instead of on the set identifier prefix when these are known.
+     *
+     * @param from staring date
+     * @param until ending date
+     * @param set set that the identifiers belong to
+     * @param setNames full names of the set, when null or empty the set identifier prefix is used
+     * @param cursorMark cursor mark used for paging the results
+     * @param rows number of results to retrieve
+     * @return prepared query
+     */
+    public static SolrQuery listIdentifiers(Date from, Date until, String set, Collection<String> setNames, String cursorMark, int rows) {
+        return listIdentifiers(from, until, set, setNames, null, cursorMark, rows);
+    }
+
+    /**
+     * Create Solr query in the same way as {@link #listIdentifiers(Date, Date, String, Collection, String, int)}. The
+     * exact date range is never put in the Solr filter cache. When a date rounding unit is provided a range rounded to
+     * that unit is added, which is the same for many requests and so can be reused from the filter cache.
+     *
+     * @param from staring date
+     * @param until ending date
+     * @param set set that the identifiers belong to
+     * @param setNames full names of the set, when null or empty the set identifier prefix is used
+     * @param dateRounding Solr date math unit (e.g. DAY or HOUR) used to round the date range, null to not round
+     * @param cursorMark cursor mark used for paging the results
+     * @param rows number of results to retrieve
+     * @return prepared query
+     */
+    public static SolrQuery listIdentifiers(Date from, Date until, String set, Collection<String> setNames,
+                                            String dateRounding, String cursorMark, int rows) {
         if (cursorMark == null || cursorMark.isEmpty()) {
             cursorMark = START_CURSOR;
         }
         SolrQuery query = getDefaultListIdentifiersSolrQuery(rows, cursorMark);
-        addFilters(query, set,  from,  until);
+        addFilters(query, set, setNames, from, until, dateRounding);
         return query;
     }
 
@@ -52,22 +110,52 @@ public class SolrQueryBuilder {
      *
      * @param query Solr query
      * @param set set identifier that the identifiers belong to
+     * @param setNames full names of the set, may be null
      * @param from staring date
      * @param until ending date
+     * @param dateRounding Solr date math unit used to round the date range, may be null
      */
-    private static void addFilters(SolrQuery query, String set, Date from, Date until) {
+    private static void addFilters(SolrQuery query, String set, Collection<String> setNames, Date from, Date until,
+                                   String dateRounding) {
+        // the set filter is kept separate from the date filter, so it can be reused by all requests for the set
         if (set != null && !set.isEmpty()) {
-            query.addFilterQuery(String.format(FQ_TEMPLATE, DATASET_NAME, set));
+            query.addFilterQuery(getSetFilter(set, setNames));
         }
 
         if (from != null || until != null) {
             String fromString = from == null ? ANY_DATE : DateConverter.toIsoDate(from);
             String untilString = until == null ? ANY_DATE : DateConverter.toIsoDate(until);
 
-            query.addFilterQuery(String.format(DATE_RANGE_TEMPLATE, TIMESTAMP_UPDATE, fromString, untilString));
+            if (dateRounding != null && !dateRounding.isEmpty()) {
+                String roundedFrom = from == null ? ANY_DATE : fromString + '/' + dateRounding;
+                String roundedUntil = until == null ? ANY_DATE : untilString + '/' + dateRounding + "+1" + dateRounding;
+                query.addFilterQuery(String.format(ROUNDED_DATE_RANGE_TEMPLATE, TIMESTAMP_UPDATE, roundedFrom, roundedUntil));
+            }
+            query.addFilterQuery(String.format(EXACT_DATE_RANGE_TEMPLATE, EXACT_DATE_RANGE_COST, TIMESTAMP_UPDATE,
+                    fromString, untilString));
         }
     }
 
+    /**
+     * Exact term filters on the set names don't need to expand the wildcard over all terms of the dataset name field,
+     * so they are faster than the prefix query (certainly when they are not in the filter cache yet). Names containing
+     * the separator of the terms query parser can't be used, then we fall back to the prefix query.
+     */
+    private static String getSetFilter(String set, Collection<String> setNames) {
+        if (setNames == null || setNames.isEmpty()) {
+            return String.format(FQ_TEMPLATE, DATASET_NAME, set);
+        }
+        if (setNames.size() == 1) {
+            return String.format(TERM_FQ_TEMPLATE, DATASET_NAME, setNames.iterator().next());
+        }
+        for (String setName : setNames) {
+            if (setName.contains(TERMS_SEPARATOR)) {
+                return String.format(FQ_TEMPLATE, DATASET_NAME, set);
+            }
+        }
+        return String.format(TERMS_FQ_TEMPLATE, DATASET_NAME, String.join(TERMS_SEPARATOR, setNames));
+    }
+
     /**
      * Prepare common Solr query object that is used for each request.
      *
@@ -103,11 +191,13 @@ public class SolrQueryBuilder {
         SolrQuery query = new SolrQuery("*:*");
         query.setRows(0);
         query.setFields(DATASET_NAME);
-        addFilters(query,null, from, until);
+        addFilters(query,null, null, from, until, null);
         query.addFacetField(DATASET_NAME);
         query.setFacet(true);
         query.setFacetLimit(limit);
         query.setFacetMinCount(1);
+        // sort on name so the order is stable and the same as in the set catalogue
+        query.setFacetSort(FacetParams.FACET_SORT_INDEX);
         if (offset > 0) {
             query.setParam(FACET_OFFSET, String.valueOf(offset));
         } else {
@@ -118,6 +208,18 @@ public class SolrQueryBuilder {
         return query;
     }
 
+    /**
+     * Prepare Solr query used to retrieve all sets (sorted by name).
+     *
+     * @return Solr query for the set catalogue
+     */
+    public static SolrQuery setCatalogue() {
+        SolrQuery query = new SolrQuery("*:*");
+        query.setRows(0);
+        query.set(JSON_FACET_PARAM, String.format(SET_CATALOGUE_TEMPLATE, DATASET_NAME));
+        return query;
+    }
+
     /**
      * Prepare Solr query used to retrieve the earliest timestamp in timestamp_update field.
      *
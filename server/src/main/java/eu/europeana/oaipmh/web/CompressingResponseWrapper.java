@@ -0,0 +1,254 @@
+package eu.europeana.oaipmh.web;
+
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response wrapper that compresses everything written to it with the negotiated content encoding (gzip or deflate).
+ * The compressing stream is only created when the first byte is written, so responses without a body (or responses
+ * that already have a Content-Encoding) are sent as they are. Because the size of the compressed response isn't known
+ * in advance any Content-Length set by the application is ignored.
+ */
+class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private final String encoding;
+    private final int level;
+    private final int bufferSize;
+
+    private CompressingOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * @param response response to wrap
+     * @param encoding content encoding to use, either gzip or deflate
+     * @param level compression level (0-9), or -1 for the default level
+     * @param bufferSize size of the output buffer of the compressor in bytes
+     */
+    CompressingResponseWrapper(HttpServletResponse response, String encoding, int level, int bufferSize) {
+        super(response);
+        this.encoding = encoding;
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+        if (outputStream == null) {
+            outputStream = new CompressingOutputStream(getResponse().getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // the length of the compressed response is unknown
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        // the length of the compressed response is unknown
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        } else if (outputStream != null) {
+            outputStream.flush();
+        }
+        super.flushBuffer();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        discardOutput();
+        addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        discardOutput();
+    }
+
+    private void discardOutput() {
+        if (outputStream != null) {
+            outputStream.discard();
+        }
+        outputStream = null;
+        writer = null;
+    }
+
+    /**
+     * Write the remaining compressed data (and trailer) to the wrapped response. This must be called when the
+     * application has finished writing the response, the wrapped response itself is not closed.
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (outputStream != null) {
+            outputStream.finish();
+        }
+    }
+
+    private class CompressingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream target;
+        private Deflater deflater;
+        private DeflaterOutputStream compressor;
+        private boolean passThrough;
+        private boolean finished;
+
+        CompressingOutputStream(ServletOutputStream target) {
+            this.target = target;
+        }
+
+        private OutputStream getStream() throws IOException {
+            if (finished) {
+                throw new IOException("Response has already been finished");
+            }
+            if (passThrough) {
+                return target;
+            }
+            if (compressor == null) {
+                int status = getStatus();
+                if (status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_NOT_MODIFIED ||
+                        containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+                    passThrough = true;
+                    return target;
+                }
+                setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+                compressor = createCompressor();
+            }
+            return compressor;
+        }
+
+        private DeflaterOutputStream createCompressor() throws IOException {
+            if (GZIP.equals(encoding)) {
+                // sync flush so data that is flushed while streaming is really sent to the client
+                return new GZIPOutputStream(target, bufferSize, true) {
+                    {
+                        def.setLevel(level);
+                        deflater = def;
+                    }
+                };
+            }
+            deflater = new Deflater(level);
+            return new DeflaterOutputStream(target, deflater, bufferSize, true);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            getStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                getStream().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (compressor != null && !finished) {
+                compressor.flush();
+            } else {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            target.close();
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (compressor != null) {
+                try {
+                    compressor.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+            target.flush();
+        }
+
+        void discard() {
+            if (deflater != null && !finished) {
+                deflater.end();
+            }
+            finished = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return target.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            target.setWriteListener(writeListener);
+        }
+    }
+}
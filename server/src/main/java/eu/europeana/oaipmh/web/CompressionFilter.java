@@ -0,0 +1,145 @@
+package eu.europeana.oaipmh.web;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compresses OAI-PMH responses with gzip or deflate, depending on the Accept-Encoding header sent by the client (see
+ * https://www.openarchives.org/OAI/openarchivesprotocol.html#ResponseCompression). Only the encodings that are
+ * advertised in the Identify response (${compression}) are used.
+ *
+ * Streamed responses are written after the request thread has returned, so for async requests the compressed stream
+ * is finished at the end of the final async dispatch.
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+
+    private static final Logger LOG = LogManager.getLogger(CompressionFilter.class);
+
+    private static final String ANY = "*";
+    private static final String X_GZIP = "x-gzip";
+
+    private final List<String> encodings = new ArrayList<>();
+    private final int level;
+    private final int bufferSize;
+
+    /**
+     * Create a new compression filter
+     * @param encodings supported encodings in order of preference, gzip and/or deflate
+     * @param level compression level (0-9), or -1 for the default level
+     * @param bufferSize size of the output buffer of the compressor in bytes
+     */
+    public CompressionFilter(String[] encodings, int level, int bufferSize) {
+        for (String encoding : encodings) {
+            String name = encoding.trim().toLowerCase(Locale.ROOT);
+            if (CompressingResponseWrapper.GZIP.equals(name) || CompressingResponseWrapper.DEFLATE.equals(name)) {
+                this.encodings.add(name);
+            } else if (!name.isEmpty()) {
+                LOG.warn("Compression {} is not supported", encoding);
+            }
+        }
+        this.level = level;
+        this.bufferSize = bufferSize;
+        LOG.info("Response compression: {}, level {}, buffer size {}", this.encodings, level, bufferSize);
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // we need to finish the compressed stream after a streamed response was written
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        CompressingResponseWrapper wrapper = WebUtils.getNativeResponse(response, CompressingResponseWrapper.class);
+        if (wrapper == null) {
+            if (encodings.isEmpty()) {
+                filterChain.doFilter(request, response);
+                return;
+            }
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            String encoding = negotiateEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            if (encoding == null || HttpMethod.HEAD.matches(request.getMethod())) {
+                filterChain.doFilter(request, response);
+                return;
+            }
+            wrapper = new CompressingResponseWrapper(response, encoding, level, bufferSize);
+        }
+
+        filterChain.doFilter(request, wrapper);
+        if (!isAsyncStarted(request)) {
+            wrapper.finish();
+        }
+    }
+
+    /**
+     * Select the supported encoding with the highest quality value in the Accept-Encoding header. When quality values
+     * are equal the order of the configured encodings is used.
+     * @param acceptEncoding value of the Accept-Encoding header, may be null
+     * @return selected encoding, or null if the response should not be compressed
+     */
+    String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        String selected = null;
+        double selectedQuality = 0;
+        for (String encoding : encodings) {
+            double quality = getQuality(acceptEncoding, encoding);
+            if (quality > selectedQuality) {
+                selected = encoding;
+                selectedQuality = quality;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return quality value of the encoding in the Accept-Encoding header, 0 if it's not acceptable
+     */
+    private static double getQuality(String acceptEncoding, String encoding) {
+        double anyQuality = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            if (X_GZIP.equals(name)) {
+                name = CompressingResponseWrapper.GZIP;
+            }
+            double quality = parseQuality(params);
+            if (encoding.equals(name)) {
+                return quality;
+            }
+            if (ANY.equals(name)) {
+                anyQuality = quality;
+            }
+        }
+        return anyQuality;
+    }
+
+    private static double parseQuality(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,29 @@
+package eu.europeana.oaipmh.web;
+
+import eu.europeana.oaipmh.profile.PipelineMetrics;
+import eu.europeana.oaipmh.service.OaiParameterName;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Makes the verb of the OAI-PMH request available to the {@link PipelineMetrics} while the request is processed, so
+ * all stages can be tagged with it.
+ */
+public class PipelineMetricsFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String previous = PipelineMetrics.setVerb(request.getParameter(OaiParameterName.VERB.toString()));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            PipelineMetrics.setVerb(previous);
+        }
+    }
+}
@@ -1,19 +1,34 @@
 package eu.europeana.oaipmh.web;
 
+import eu.europeana.oaipmh.model.request.GetRecordRequest;
+import eu.europeana.oaipmh.model.request.ListIdentifiersRequest;
+import eu.europeana.oaipmh.model.request.ListRecordsRequest;
+import eu.europeana.oaipmh.model.response.OAIResponse;
+import eu.europeana.oaipmh.service.BaseService;
 import eu.europeana.oaipmh.service.OaiPmhRequestFactory;
 import eu.europeana.oaipmh.service.OaiPmhService;
+import eu.europeana.oaipmh.service.RecordVersion;
 import eu.europeana.oaipmh.service.exception.BadMethodException;
 import eu.europeana.oaipmh.service.exception.BadVerbException;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
 import eu.europeana.oaipmh.util.SwaggerProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.Pattern;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * Rest controller that handles incoming OAI-PMH requests (identify, get record, list identifiers, list metadata formats,
@@ -28,12 +43,20 @@ public class VerbController {
 
     private static final String REGEX_VALID_SET_ID = "^[a-zA-Z0-9-_]*$";
     private static final String INVALID_SET_ID_MESSAGE = "Set id is invalid";
-    private static final String MEDIA_TYPE_TEXT_XML = "text/xml;charset=UTF-8";
-
+    private static final MediaType MEDIA_TYPE_TEXT_XML = new MediaType(MediaType.TEXT_XML, StandardCharsets.UTF_8);
+    private static final MediaType MEDIA_TYPE_APPLICATION_XML = new MediaType(MediaType.APPLICATION_XML, StandardCharsets.UTF_8);
 
     @Value("${baseURL}")
     private String baseUrl;
 
+    @Value("${streamResponses:false}")
+    private boolean streamResponses;
+
+    // when enabled GetRecord responses get an ETag and Last-Modified header and conditional requests are answered
+    // with 304 Not Modified without retrieving the record
+    @Value("${conditionalGetRecord:false}")
+    private boolean conditionalGetRecord;
+
     private OaiPmhService       ops;
     private SwaggerProvider     swaggerProvider;
 
@@ -52,9 +75,9 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = "verb=Identify",
                     produces = { MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public Object handleIdentify(HttpServletRequest request, HttpServletResponse response) throws OaiPmhException {
+    public ResponseEntity<byte[]> handleIdentify(HttpServletRequest request, HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.getIdentify(OaiPmhRequestFactory.createIdentifyRequest(baseUrl));
+        return write(ops.getIdentify(OaiPmhRequestFactory.createIdentifyRequest(baseUrl)), request);
     }
 
     /**
@@ -69,12 +92,45 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = "verb=GetRecord",
                     produces = { MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public String handleGetRecord(@RequestParam(value = "metadataPrefix", required = true) String metadataPrefix,
+    public ResponseEntity<String> handleGetRecord(@RequestParam(value = "metadataPrefix", required = true) String metadataPrefix,
                                   @RequestParam(value = "identifier", required = true) String identifier,
                                   HttpServletRequest request,
                                   HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.getRecord(OaiPmhRequestFactory.createGetRecordRequest(baseUrl, metadataPrefix, identifier));
+        GetRecordRequest getRecordRequest = OaiPmhRequestFactory.createGetRecordRequest(baseUrl, metadataPrefix, identifier);
+        RecordVersion version = conditionalGetRecord ? ops.getRecordVersion(getRecordRequest) : null;
+        if (version == null || version.getLastModified() == null) {
+            return ResponseEntity.ok(ops.getRecord(getRecordRequest));
+        }
+
+        String eTag = getRecordETag(getRecordRequest, version);
+        long lastModified = version.getLastModified().getTime();
+        // when part of the record (e.g. technical metadata) can change without updating the modification date, only
+        // the ETag is a reliable validator
+        boolean dateValidator = version.getTag() == null;
+        boolean safeMethod = HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+        if (safeMethod) {
+            ServletWebRequest webRequest = new ServletWebRequest(request, response);
+            if (dateValidator ? webRequest.checkNotModified(eTag, lastModified) : webRequest.checkNotModified(eTag)) {
+                // status and headers are already set
+                return null;
+            }
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().eTag(eTag);
+        if (dateValidator) {
+            builder.lastModified(lastModified);
+        }
+        return builder.body(ops.getRecord(getRecordRequest, version));
+    }
+
+    /**
+     * The metadata of a record only changes when the record is updated or when the data in the version tag changes,
+     * so the ETag is derived from the request parameters and the version of the record
+     */
+    private static String getRecordETag(GetRecordRequest request, RecordVersion version) {
+        String value = request.getIdentifier() + '|' + request.getMetadataPrefix() + '|'
+                + version.getLastModified().getTime() + '|' + version.getTag();
+        return '"' + DigestUtils.md5DigestAsHex(value.getBytes(StandardCharsets.UTF_8)) + '"';
     }
 
     /**
@@ -88,11 +144,11 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = {"verb=ListIdentifiers", "resumptionToken", "!metadataPrefix", "!set", "!from", "!until"},
                     produces = { MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public String handleListIdentifiersToken(@RequestParam(value = "resumptionToken") String resumptionToken,
+    public Object handleListIdentifiersToken(@RequestParam(value = "resumptionToken") String resumptionToken,
                                              HttpServletRequest request,
                                              HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.listIdentifiers(OaiPmhRequestFactory.createListIdentifiersRequest(baseUrl, resumptionToken));
+        return listIdentifiers(OaiPmhRequestFactory.createListIdentifiersRequest(baseUrl, resumptionToken), request, response);
     }
 
     /**
@@ -109,7 +165,7 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = {"verb=ListIdentifiers", "metadataPrefix", "!resumptionToken"},
                     produces = { MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public String handleListIdentifiers(@RequestParam(value = "metadataPrefix") String metadataPrefix,
+    public Object handleListIdentifiers(@RequestParam(value = "metadataPrefix") String metadataPrefix,
                                         @RequestParam(value = "from", required = false) String from,
                                         @RequestParam(value = "until", required = false) String until,
                                         @RequestParam(value = "set", required = false) @Pattern(regexp = REGEX_VALID_SET_ID,
@@ -117,7 +173,7 @@ public class VerbController {
                                         HttpServletRequest request,
                                         HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.listIdentifiers(OaiPmhRequestFactory.createListIdentifiersRequest(baseUrl, metadataPrefix, set, from, until));
+        return listIdentifiers(OaiPmhRequestFactory.createListIdentifiersRequest(baseUrl, metadataPrefix, set, from, until), request, response);
     }
 
     /**
@@ -134,7 +190,7 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = {"verb=ListRecords", "metadataPrefix", "!resumptionToken"},
                     produces = { MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public String handleListRecords(@RequestParam(value = "metadataPrefix") String metadataPrefix,
+    public Object handleListRecords(@RequestParam(value = "metadataPrefix") String metadataPrefix,
                                     @RequestParam(value = "from", required = false) String from,
                                     @RequestParam(value = "until", required = false) String until,
                                     @RequestParam(value = "set", required = false ) @Pattern(regexp = REGEX_VALID_SET_ID,
@@ -142,7 +198,7 @@ public class VerbController {
                                     HttpServletRequest request,
                                     HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.listRecords(OaiPmhRequestFactory.createListRecordsRequest(baseUrl, metadataPrefix, set, from, until));
+        return listRecords(OaiPmhRequestFactory.createListRecordsRequest(baseUrl, metadataPrefix, set, from, until), request, response);
     }
 
     /**
@@ -156,11 +212,11 @@ public class VerbController {
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.POST},
                     params = {"verb=ListRecords", "resumptionToken", "!metadataPrefix", "!set", "!from", "!until"},
                     produces = {MediaType.APPLICATION_XML_VALUE, MediaType.TEXT_XML_VALUE})
-    public String handleListRecordsToken(@RequestParam(value = "resumptionToken") String resumptionToken,
+    public Object handleListRecordsToken(@RequestParam(value = "resumptionToken") String resumptionToken,
                                          HttpServletRequest request,
                                          HttpServletResponse response) throws OaiPmhException {
         OaiPmhRequestFactory.validateParameterNames(request.getQueryString());
-        return ops.listRecords(OaiPmhRequestFactory.createListRecordsRequest(baseUrl, resumptionToken));
+        return listRecords(OaiPmhRequestFactory.createListRecordsRequest(baseUrl, resumptionToken), request, response);
     }
 
     /**
@@ -253,6 +309,77 @@ public class VerbController {
         throw new BadMethodException(request.getMethod() + " is not allowed.");
     }
 
+    /**
+     * Prepares the ListIdentifiers response. In streaming mode the response object is serialized directly to the servlet
+     * output stream, otherwise the fully serialized response is returned.
+     */
+    private Object listIdentifiers(ListIdentifiersRequest listIdentifiersRequest, HttpServletRequest request,
+                                   HttpServletResponse response) throws OaiPmhException {
+        if (streamResponses) {
+            OAIResponse oaiResponse = ops.getListIdentifiersResponse(listIdentifiersRequest);
+            return stream(outputStream -> ops.serialize(oaiResponse, outputStream), request, response);
+        }
+        return write(ops.listIdentifiers(listIdentifiersRequest), request);
+    }
+
+    /**
+     * Prepares the ListRecords response. In streaming mode the records are retrieved while the response is written, and
+     * each record is written to the servlet output stream as soon as it's available. Otherwise the fully serialized
+     * response is returned.
+     */
+    private Object listRecords(ListRecordsRequest listRecordsRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws OaiPmhException {
+        if (streamResponses) {
+            return stream(ops.streamListRecords(listRecordsRequest), request, response);
+        }
+        return write(ops.listRecords(listRecordsRequest), request);
+    }
+
+    /**
+     * Returned as a plain StreamingResponseBody, because Spring only recognizes a ResponseEntity with a streaming body
+     * when that's the declared return type
+     */
+    private StreamingResponseBody stream(BaseService.ResponseWriter writer, HttpServletRequest request, HttpServletResponse response) {
+        response.setContentType(getResponseMediaType(request).toString());
+        return outputStream -> {
+            try {
+                writer.writeTo(outputStream);
+            } catch (OaiPmhException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        };
+    }
+
+    private ResponseEntity<String> write(String xml, HttpServletRequest request) {
+        return ResponseEntity.ok()
+                .contentType(getResponseMediaType(request))
+                .body(xml);
+    }
+
+    private ResponseEntity<byte[]> write(byte[] xml, HttpServletRequest request) {
+        return ResponseEntity.ok()
+                .contentType(getResponseMediaType(request))
+                .body(xml);
+    }
+
+    /**
+     * Streamed responses bypass the message converters, so we select the xml media type ourselves (and use the same for
+     * the other responses). Like the converters we default to application/xml unless the client prefers text/xml.
+     */
+    private static MediaType getResponseMediaType(HttpServletRequest request) {
+        List<MediaType> acceptedTypes = MediaType.parseMediaTypes(request.getHeader(HttpHeaders.ACCEPT));
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.includes(MediaType.APPLICATION_XML)) {
+                break;
+            }
+            if (acceptedType.includes(MediaType.TEXT_XML)) {
+                return MEDIA_TYPE_TEXT_XML;
+            }
+        }
+        return MEDIA_TYPE_APPLICATION_XML;
+    }
+
     /**
      * Returns a hard-coded json swagger configuration file to work around the problem of Swagger not distinguishing
      * between these OAI-PMH "verbs"
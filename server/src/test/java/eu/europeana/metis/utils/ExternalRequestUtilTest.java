@@ -0,0 +1,97 @@
+package eu.europeana.metis.utils;
+
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import eu.europeana.oaipmh.util.CircuitBreaker;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ExternalRequestUtilTest {
+
+    @Test
+    public void retryWhenBackendUnavailable() {
+        AtomicInteger attempts = new AtomicInteger();
+        String result = ExternalRequestUtil.retryableBackendRequest("test_retry", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new RuntimeException("Error retrieving record", new MongoSocketException("Connection refused", new ServerAddress()));
+            }
+            return "record";
+        });
+
+        assertEquals("record", result);
+        assertEquals(3, attempts.get());
+        assertEquals(CircuitBreaker.State.CLOSED, ExternalRequestUtil.getCircuitBreaker("test_retry").getState());
+    }
+
+    @Test
+    public void noRetryForOtherErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            ExternalRequestUtil.retryableBackendRequest("test_no_retry", () -> {
+                attempts.incrementAndGet();
+                throw new IllegalArgumentException("Invalid query");
+            });
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void failFastWhenCircuitBreakerOpen() {
+        ExternalRequestUtil.configureCircuitBreaker("test_open", 2, 60000);
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            try {
+                ExternalRequestUtil.retryableBackendRequest("test_open", () -> {
+                    attempts.incrementAndGet();
+                    throw new RuntimeException(new ConnectException("Connection refused"));
+                });
+                fail("Exception expected");
+            } catch (CircuitBreaker.CircuitBreakerOpenException e) {
+                // second request isn't executed at all
+                assertEquals(1, i);
+            } catch (RuntimeException e) {
+                assertEquals(0, i);
+            }
+        }
+        assertEquals(2, attempts.get());
+        assertEquals(CircuitBreaker.State.OPEN, ExternalRequestUtil.getCircuitBreaker("test_open").getState());
+    }
+
+    @Test
+    public void otherErrorsDoNotCloseCircuitBreaker() {
+        ExternalRequestUtil.configureCircuitBreaker("test_other", 1, 0);
+        try {
+            ExternalRequestUtil.retryableBackendRequest("test_other", () -> {
+                throw new RuntimeException(new ConnectException("Connection refused"));
+            });
+            fail("Exception expected");
+        } catch (RuntimeException e) {
+            assertEquals(CircuitBreaker.State.OPEN, ExternalRequestUtil.getCircuitBreaker("test_other").getState());
+        }
+
+        // the trial request fails without a response of the backend
+        try {
+            ExternalRequestUtil.retryableBackendRequest("test_other", () -> {
+                throw new IllegalStateException("Mapping error");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals(CircuitBreaker.State.HALF_OPEN, ExternalRequestUtil.getCircuitBreaker("test_other").getState());
+        }
+    }
+
+    @Test
+    public void backoffGrowsExponentially() {
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long maxDelay = Math.min(2000, 100L << (attempt - 1));
+            long delay = ExternalRequestUtil.getBackoffDelay(attempt);
+            assertTrue(delay >= maxDelay / 2 && delay <= maxDelay);
+        }
+    }
+}
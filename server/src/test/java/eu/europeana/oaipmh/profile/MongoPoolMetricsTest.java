@@ -0,0 +1,77 @@
+package eu.europeana.oaipmh.profile;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MongoPoolMetricsTest {
+
+    private static final ServerId SERVER = new ServerId(new ClusterId(), new ServerAddress("localhost", 27017));
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Before
+    public void init() {
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void cleanup() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    public void trackConnections() {
+        MongoPoolMetrics metrics = new MongoPoolMetrics("test_connections");
+        ConnectionId connection1 = new ConnectionId(SERVER);
+        ConnectionId connection2 = new ConnectionId(SERVER);
+
+        metrics.connectionCreated(new ConnectionCreatedEvent(connection1));
+        metrics.connectionCreated(new ConnectionCreatedEvent(connection2));
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER));
+        assertEquals(1, metrics.getWaiting());
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(connection1));
+        assertEquals(0, metrics.getWaiting());
+        assertEquals(1, metrics.getCheckedOut());
+        metrics.connectionCheckedIn(new ConnectionCheckedInEvent(connection1));
+        metrics.connectionClosed(new ConnectionClosedEvent(connection2, ConnectionClosedEvent.Reason.IDLE));
+
+        assertEquals(0, metrics.getCheckedOut());
+        assertEquals(1, metrics.getSize());
+        assertEquals(1, registry.find(MongoPoolMetrics.POOL_SIZE).tag("client", "test_connections").gauge().value(), 0);
+        assertEquals(2, registry.find(MongoPoolMetrics.CREATED).tag("client", "test_connections").counter().count(), 0);
+        Timer waitTime = registry.find(MongoPoolMetrics.WAIT_TIME).tag("client", "test_connections").timer();
+        assertNotNull(waitTime);
+        assertEquals(1, waitTime.count());
+    }
+
+    @Test
+    public void countFailedCheckOuts() {
+        MongoPoolMetrics metrics = new MongoPoolMetrics("test_failures");
+
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(SERVER));
+        metrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(SERVER, ConnectionCheckOutFailedEvent.Reason.TIMEOUT));
+
+        assertEquals(0, metrics.getWaiting());
+        Counter timeouts = registry.find(MongoPoolMetrics.CHECK_OUT_FAILED).tags("client", "test_failures", "reason", "timeout").counter();
+        assertNotNull(timeouts);
+        assertEquals(1, timeouts.count(), 0);
+        assertEquals(0, registry.find(MongoPoolMetrics.CHECK_OUT_FAILED).tags("client", "test_failures", "reason", "pool_closed").counter().count(), 0);
+    }
+}
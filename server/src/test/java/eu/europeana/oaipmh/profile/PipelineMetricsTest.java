@@ -0,0 +1,60 @@
+package eu.europeana.oaipmh.profile;
+
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Before
+    public void init() {
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void cleanup() {
+        Metrics.removeRegistry(registry);
+        PipelineMetrics.setVerb(null);
+    }
+
+    @Test
+    public void timeStageTaggedByVerb() throws Exception {
+        String previous = PipelineMetrics.setVerb("ListRecords");
+        assertNull(previous);
+
+        assertEquals("edm", PipelineMetrics.time(PipelineMetrics.Stage.TO_EDM, () -> "edm"));
+        try {
+            PipelineMetrics.time(PipelineMetrics.Stage.TO_EDM, () -> {
+                throw new InternalServerErrorException("Conversion failed");
+            });
+            fail("Exception expected");
+        } catch (InternalServerErrorException e) {
+            // failed calls are timed as well
+        }
+
+        Timer timer = registry.find(PipelineMetrics.STAGE_TIMER).tags("stage", "to_edm", "verb", "ListRecords").timer();
+        assertNotNull(timer);
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    public void unknownVerbsAreNotTags() {
+        PipelineMetrics.recordResponseSize("DropTables", 100);
+        PipelineMetrics.recordResponseSize(null, 200);
+
+        DistributionSummary unknown = registry.find(PipelineMetrics.RESPONSE_SIZE).tags("verb", "unknown").summary();
+        assertNotNull(unknown);
+        assertEquals(100, unknown.totalAmount(), 0);
+        assertNotNull(registry.find(PipelineMetrics.RESPONSE_SIZE).tags("verb", "none").summary());
+        assertNull(registry.find(PipelineMetrics.RESPONSE_SIZE).tags("verb", "DropTables").summary());
+    }
+}
@@ -0,0 +1,47 @@
+package eu.europeana.oaipmh.profile;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SolrFilterMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Before
+    public void init() {
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void cleanup() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    public void recordFilterQueries() {
+        double repeated = count("repeated");
+        double news = count("new");
+        double uncached = count("uncached");
+
+        String setFilter = "edm_datasetName:" + System.nanoTime() + "_*";
+        String exactRange = "{!cache=false cost=100}timestamp_update:[2017-08-03T15:16:21Z TO *]";
+        SolrFilterMetrics.record(new String[] {setFilter, exactRange});
+        SolrFilterMetrics.record(new String[] {setFilter, exactRange});
+        SolrFilterMetrics.record(null);
+
+        assertEquals(1, count("repeated") - repeated, 0);
+        assertEquals(1, count("new") - news, 0);
+        assertEquals(2, count("uncached") - uncached, 0);
+    }
+
+    private double count(String repetition) {
+        Counter counter = registry.find(SolrFilterMetrics.FILTER_REPETITIONS).tag("repetition", repetition).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -0,0 +1,85 @@
+package eu.europeana.oaipmh.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void limitGrowsWhileLatencyIsFlat() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create("test", 10, 2, 100, 1000);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(RTT, (int) limiter.getLimit(), false);
+        }
+        assertTrue("Limit " + limiter.getLimit(), limiter.getLimit() > 20);
+        assertTrue(limiter.getLimit() <= 100);
+    }
+
+    @Test
+    public void limitDoesNotGrowWhenNotUsed() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create("test", 10, 2, 100, 1000);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(RTT, 1, false);
+        }
+        assertEquals(10, limiter.getLimit(), 0.001);
+    }
+
+    @Test
+    public void limitBacksOffWhenLatencyGoesUp() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create("test", 50, 2, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(RTT, 50, false);
+        }
+        double before = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(RTT * 5, (int) limiter.getLimit(), false);
+        }
+        assertTrue("Limit " + limiter.getLimit() + " before " + before, limiter.getLimit() < before / 2);
+        assertTrue(limiter.getLimit() >= 2);
+    }
+
+    @Test
+    public void limitBacksOffOnErrors() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create("test", 10, 2, 100, 1000);
+        limiter.onSample(RTT, 10, true);
+        assertEquals(9, limiter.getLimit(), 0.001);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(RTT, 10, true);
+        }
+        assertEquals(2, limiter.getLimit(), 0.001);
+    }
+
+    @Test(expected = AdaptiveConcurrencyLimiter.LimitExceededException.class)
+    public void callFailsWhenLimitIsReached() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create("test", 1, 1, 1, 50);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> first = executor.submit(() -> limiter.execute(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            try {
+                limiter.execute(() -> "second");
+            } finally {
+                release.countDown();
+                first.get(5, TimeUnit.SECONDS);
+                assertEquals(0, limiter.getInFlight());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
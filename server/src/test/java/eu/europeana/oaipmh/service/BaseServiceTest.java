@@ -0,0 +1,105 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.model.Header;
+import eu.europeana.oaipmh.model.ListRecords;
+import eu.europeana.oaipmh.model.RDFMetadata;
+import eu.europeana.oaipmh.model.Record;
+import eu.europeana.oaipmh.model.ResumptionToken;
+import eu.europeana.oaipmh.model.request.ListRecordsRequest;
+import eu.europeana.oaipmh.model.response.ListRecordsResponse;
+import eu.europeana.oaipmh.model.response.OAIResponse;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+public class BaseServiceTest {
+
+    private static final String BASE_URL = "https://oai.europeana.eu/oai";
+
+    private final BaseService service = new BaseService();
+
+    @Test
+    public void streamedListRecordsEqualsSerializedListRecords() throws OaiPmhException {
+        List<Record> records = Arrays.asList(
+                new Record(new Header("http://data.europeana.eu/item/1/a", new Date(0), "1"), new RDFMetadata("<rdf:RDF>a</rdf:RDF>")),
+                new Record(new Header("http://data.europeana.eu/item/1/b", new Date(0), "1"), new RDFMetadata("<rdf:RDF>b</rdf:RDF>")));
+        ResumptionToken token = new ResumptionToken("token", 10, new Date(0), 0);
+        ListRecordsRequest request = new ListRecordsRequest("ListRecords", BASE_URL, "edm", "1", null, null);
+
+        OAIResponse expected = new ListRecords(new ArrayList<>(records), token).getResponse(request);
+        ListRecordsResponse streamed = new ListRecordsResponse(new ListRecords(null, token), request);
+        streamed.setResponseDate(expected.getResponseDate());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(service.serialize(streamed, provide(records), headers(records), outputStream));
+        assertEquals(service.serialize(expected), outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void streamedListRecordsWithoutRecords() throws OaiPmhException {
+        ListRecordsRequest request = new ListRecordsRequest("ListRecords", BASE_URL, "edm", null, null, null);
+        ListRecordsResponse streamed = new ListRecordsResponse(new ListRecords(null, null), request);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertFalse(service.serialize(streamed, provide(Collections.emptyList()),
+                Collections.singletonList(new Header("http://data.europeana.eu/item/1/a", new Date(0), "1")), outputStream));
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test
+    public void streamedListRecordsWritesRecordsWhileRetrieving() throws OaiPmhException {
+        Record record = new Record(new Header("http://data.europeana.eu/item/1/a", new Date(0), "1"), new RDFMetadata("<rdf:RDF>a</rdf:RDF>"));
+        ListRecordsRequest request = new ListRecordsRequest("ListRecords", BASE_URL, "edm", null, null, null);
+        ListRecordsResponse streamed = new ListRecordsResponse(new ListRecords(null, null), request);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RecordProvider provider = mock(RecordProvider.class);
+        willAnswer(invocation -> {
+            invocation.<RecordProvider.RecordConsumer>getArgument(1).accept(record);
+            // the envelope and the first record are written before the next record is retrieved
+            String written = outputStream.toString(StandardCharsets.UTF_8);
+            assertTrue(written.contains("<ListRecords><record><header>"));
+            assertTrue(written.endsWith("</record>"));
+            throw new InternalServerErrorException("Error retrieving data");
+        }).given(provider).listRecords(anyList(), any(RecordProvider.RecordConsumer.class));
+
+        try {
+            service.serialize(streamed, provider, Collections.singletonList(record.getHeader()), outputStream);
+            fail("Expected InternalServerErrorException");
+        } catch (InternalServerErrorException e) {
+            assertFalse(outputStream.toString(StandardCharsets.UTF_8).contains("</OAI-PMH>"));
+        }
+    }
+
+    private static RecordProvider provide(List<Record> records) throws OaiPmhException {
+        RecordProvider provider = mock(RecordProvider.class);
+        willAnswer(invocation -> {
+            for (Record record : records) {
+                invocation.<RecordProvider.RecordConsumer>getArgument(1).accept(record);
+            }
+            return null;
+        }).given(provider).listRecords(anyList(), any(RecordProvider.RecordConsumer.class));
+        return provider;
+    }
+
+    private static List<Header> headers(List<Record> records) {
+        List<Header> headers = new ArrayList<>();
+        for (Record record : records) {
+            headers.add(record.getHeader());
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,185 @@
+package eu.europeana.oaipmh.service;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoClient;
+import dev.morphia.Datastore;
+import dev.morphia.Morphia;
+import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Reference;
+import dev.morphia.mapping.codec.pojo.EntityModel;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class BatchedEntityLoaderTest {
+
+    private BatchedEntityLoader loader;
+
+    // content of the test database by entity class
+    private final Map<Class<?>, List<Object>> entities = new HashMap<>();
+    private final Map<Class<?>, List<Document>> documents = new HashMap<>();
+
+    @Before
+    public void init() {
+        // only the Morphia mapping is used, all queries are stubbed
+        Datastore datastore = Morphia.createDatastore(mock(MongoClient.class, RETURNS_DEEP_STUBS), "test");
+        loader = spy(new BatchedEntityLoader(datastore));
+
+        doAnswer(invocation -> {
+            Class<?> type = invocation.getArgument(0);
+            String field = invocation.getArgument(1);
+            Collection<?> values = invocation.getArgument(2);
+            return entities.getOrDefault(type, Collections.emptyList()).stream()
+                    .filter(entity -> values.contains(field.equals("_id") ? getId(entity) : ((TestRecord) entity).about))
+                    .collect(Collectors.toList());
+        }).when(loader).findEntities(any(), anyString(), anyCollection(), anyList());
+        doAnswer(invocation -> {
+            EntityModel model = invocation.getArgument(0);
+            String field = invocation.getArgument(1);
+            Collection<?> values = invocation.getArgument(2);
+            return documents.getOrDefault(model.getType(), Collections.emptyList()).stream()
+                    .filter(document -> values.contains(document.get(field)))
+                    .collect(Collectors.toList());
+        }).when(loader).findReferenceDocuments(any(EntityModel.class), anyString(), anyCollection(), anyList());
+    }
+
+    @Test
+    public void loadReferencesPerType() {
+        // given
+        TestAgent agent1 = addAgent("Agent 1");
+        TestAgent agent2 = addAgent("Agent 2");
+        TestWebResource webResource1 = addWebResource("http://www.example.org/1.jpg");
+        TestWebResource webResource2 = addWebResource("http://www.example.org/2.jpg");
+        TestAggregation aggregation1 = addAggregation(webResource1, webResource2);
+        TestAggregation aggregation2 = addAggregation(webResource2);
+        addRecord("/1/A", Arrays.asList(agent2.id, agent1.id), aggregation1.id);
+        addRecord("/1/B", Arrays.asList(agent1.id, new ObjectId()), aggregation2.id);
+        addRecord("/1/C", Collections.emptyList(), null);
+
+        // when
+        List<TestRecord> records = loader.find(TestRecord.class, "about", Arrays.asList("/1/A", "/1/B", "/1/C", "/1/D"));
+
+        // then every type is loaded with one query
+        assertEquals(3, records.size());
+        verify(loader, times(1)).findEntities(eq(TestRecord.class), anyString(), anyCollection(), anyList());
+        verify(loader, times(1)).findEntities(eq(TestAgent.class), anyString(), anyCollection(), anyList());
+        verify(loader, times(1)).findEntities(eq(TestAggregation.class), anyString(), anyCollection(), anyList());
+        verify(loader, times(1)).findEntities(eq(TestWebResource.class), anyString(), anyCollection(), anyList());
+        verify(loader, times(2)).findReferenceDocuments(any(EntityModel.class), anyString(), anyCollection(), anyList());
+
+        // and the references are set in their stored order, missing references are left out
+        Map<String, TestRecord> byAbout = records.stream().collect(Collectors.toMap(r -> r.about, r -> r));
+        assertEquals(Arrays.asList(agent2, agent1), byAbout.get("/1/A").agents);
+        assertEquals(Collections.singletonList(agent1), byAbout.get("/1/B").agents);
+        assertEquals(Collections.emptyList(), byAbout.get("/1/C").agents);
+        assertSame(aggregation1, byAbout.get("/1/A").aggregation);
+        assertNull(byAbout.get("/1/C").aggregation);
+        assertEquals(Arrays.asList(webResource1, webResource2), byAbout.get("/1/A").aggregation.webResources);
+        assertEquals(Collections.singletonList(webResource2), byAbout.get("/1/B").aggregation.webResources);
+    }
+
+    @Test
+    public void loadNothing() {
+        assertTrue(loader.find(TestRecord.class, "about", Collections.emptyList()).isEmpty());
+        verify(loader, never()).findEntities(any(), anyString(), anyCollection(), anyList());
+    }
+
+    private static Object getId(Object entity) {
+        if (entity instanceof TestRecord) {
+            return ((TestRecord) entity).id;
+        }
+        if (entity instanceof TestAggregation) {
+            return ((TestAggregation) entity).id;
+        }
+        if (entity instanceof TestAgent) {
+            return ((TestAgent) entity).id;
+        }
+        return ((TestWebResource) entity).id;
+    }
+
+    private TestAgent addAgent(String name) {
+        TestAgent agent = new TestAgent();
+        agent.id = new ObjectId();
+        agent.name = name;
+        entities.computeIfAbsent(TestAgent.class, type -> new ArrayList<>()).add(agent);
+        return agent;
+    }
+
+    private TestWebResource addWebResource(String about) {
+        TestWebResource webResource = new TestWebResource();
+        webResource.id = new ObjectId();
+        webResource.about = about;
+        entities.computeIfAbsent(TestWebResource.class, type -> new ArrayList<>()).add(webResource);
+        return webResource;
+    }
+
+    private TestAggregation addAggregation(TestWebResource... webResources) {
+        TestAggregation aggregation = new TestAggregation();
+        aggregation.id = new ObjectId();
+        entities.computeIfAbsent(TestAggregation.class, type -> new ArrayList<>()).add(aggregation);
+        documents.computeIfAbsent(TestAggregation.class, type -> new ArrayList<>()).add(new Document("_id", aggregation.id)
+                .append("webResources", Arrays.stream(webResources).map(w -> new DBRef("WebResource", w.id)).collect(Collectors.toList())));
+        return aggregation;
+    }
+
+    private void addRecord(String about, List<ObjectId> agentIds, ObjectId aggregationId) {
+        TestRecord record = new TestRecord();
+        record.id = new ObjectId();
+        record.about = about;
+        entities.computeIfAbsent(TestRecord.class, type -> new ArrayList<>()).add(record);
+        Document document = new Document("_id", record.id).append("about", about)
+                .append("agents", agentIds.stream().map(id -> new DBRef("Agent", id)).collect(Collectors.toList()));
+        if (aggregationId != null) {
+            document.append("aggregation", new DBRef("Aggregation", aggregationId));
+        }
+        documents.computeIfAbsent(TestRecord.class, type -> new ArrayList<>()).add(document);
+    }
+
+    @Entity("record")
+    public static class TestRecord {
+        @Id
+        private ObjectId id;
+        private String about;
+        @Reference
+        private List<TestAgent> agents;
+        @Reference
+        private TestAggregation aggregation;
+    }
+
+    @Entity("Aggregation")
+    public static class TestAggregation {
+        @Id
+        private ObjectId id;
+        @Reference
+        private List<TestWebResource> webResources;
+    }
+
+    @Entity("Agent")
+    public static class TestAgent {
+        @Id
+        private ObjectId id;
+        private String name;
+    }
+
+    @Entity("WebResource")
+    public static class TestWebResource {
+        @Id
+        private ObjectId id;
+        private String about;
+    }
+}
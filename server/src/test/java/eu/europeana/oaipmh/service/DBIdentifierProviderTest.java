@@ -0,0 +1,137 @@
+package eu.europeana.oaipmh.service;
+
+import com.mongodb.MongoClientSettings;
+import eu.europeana.oaipmh.model.DecodedResumptionToken;
+import eu.europeana.oaipmh.model.Header;
+import eu.europeana.oaipmh.model.ListIdentifiers;
+import eu.europeana.oaipmh.service.exception.BadResumptionToken;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import eu.europeana.oaipmh.util.DateConverter;
+import eu.europeana.oaipmh.util.ResumptionTokenHelper;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DBIdentifierProviderTest {
+
+    private static final String IDENTIFIER_PREFIX = "http://data.europeana.eu/item";
+
+    private static final String METADATA_FORMAT = "edm";
+
+    private static final Date DATE_1 = DateConverter.fromIsoDateTime("2017-08-03T12:16:21Z");
+
+    private static final Date DATE_2 = DateConverter.fromIsoDateTime("2017-08-03T15:16:21Z");
+
+    private static final Date DEFAULT_TIMESTAMP = DateConverter.fromIsoDateTime("1970-01-01T00:00:00Z");
+
+    private DBIdentifierProvider identifierProvider;
+
+    @Before
+    public void initTest() {
+        identifierProvider = spy(DBIdentifierProvider.class);
+        ReflectionTestUtils.setField(identifierProvider, "identifierPrefix", IDENTIFIER_PREFIX);
+        ReflectionTestUtils.setField(identifierProvider, "resumptionTokenTTL", 86400000);
+        ReflectionTestUtils.setField(identifierProvider, "defaultIdentifierTimestamp", DEFAULT_TIMESTAMP);
+    }
+
+    @Test
+    public void listIdentifiersLastPage() throws OaiPmhException {
+        doReturn(Arrays.asList(record("/2064125/a", DATE_1, "2064125_Ag_EU"),
+                record("/08506/b", null, "08506_L_Test"))).when(identifierProvider).findIdentifiers(any(Bson.class), anyInt());
+
+        ListIdentifiers result = identifierProvider.listIdentifiers(METADATA_FORMAT, null, null, null, 2);
+
+        assertEquals(2, result.getHeaders().size());
+        assertNull(result.getResumptionToken());
+        Header header = result.getHeaders().get(0);
+        assertEquals(IDENTIFIER_PREFIX + "/2064125/a", header.getIdentifier());
+        assertEquals(DATE_1, header.getDatestamp());
+        assertEquals(Collections.singletonList("2064125"), header.getSetSpec());
+        assertEquals(DEFAULT_TIMESTAMP, result.getHeaders().get(1).getDatestamp());
+        verify(identifierProvider, never()).countIdentifiers(any(Bson.class));
+    }
+
+    @Test
+    public void listIdentifiersNextPage() throws OaiPmhException {
+        doReturn(Arrays.asList(record("/2064125/a", DATE_1, "2064125_Ag_EU"),
+                record("/2064125/b", DATE_2, "2064125_Ag_EU"),
+                record("/2064125/c", DATE_2, "2064125_Ag_EU"))).when(identifierProvider).findIdentifiers(any(Bson.class), anyInt());
+        doReturn(10L).when(identifierProvider).countIdentifiers(any(Bson.class));
+
+        ListIdentifiers result = identifierProvider.listIdentifiers(METADATA_FORMAT, DATE_1, null, "2064125", 2);
+
+        // one identifier more than the page size is retrieved to know if there's a next page
+        verify(identifierProvider).findIdentifiers(any(Bson.class), eq(3));
+        assertEquals(2, result.getHeaders().size());
+        assertNotNull(result.getResumptionToken());
+        assertEquals(10L, result.getResumptionToken().getCompleteListSize());
+
+        DecodedResumptionToken token = ResumptionTokenHelper.decodeResumptionToken(result.getResumptionToken().getValue());
+        assertEquals(DATE_2.getTime() + ":/2064125/b", token.getCursorMark());
+        assertEquals("2064125", token.getSet());
+        assertEquals(0, token.getCursor());
+    }
+
+    @Test
+    public void listIdentifiersWithResumptionToken() throws OaiPmhException {
+        DecodedResumptionToken token = ResumptionTokenHelper.decodeResumptionToken(
+                ResumptionTokenHelper.createResumptionToken((Date) null, null, null, METADATA_FORMAT,
+                        new Date(System.currentTimeMillis() + 60000), 10, 0, DATE_2.getTime() + ":/2064125/b").getValue());
+        doReturn(Collections.singletonList(record("/2064125/c", DATE_2, "2064125_Ag_EU")))
+                .when(identifierProvider).findIdentifiers(any(Bson.class), anyInt());
+
+        ListIdentifiers result = identifierProvider.listIdentifiers(token, 2);
+
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(identifierProvider).findIdentifiers(filter.capture(), eq(3));
+        String query = toJson(filter.getValue());
+        assertTrue(query.contains("$gt"));
+        assertTrue(query.contains("/2064125/b"));
+        assertEquals(1, result.getHeaders().size());
+        assertNull(result.getResumptionToken());
+        verify(identifierProvider, never()).countIdentifiers(any(Bson.class));
+    }
+
+    @Test
+    public void setFilterUsesSetNames() {
+        SetsProvider setsProvider = mock(SetsProvider.class);
+        when(setsProvider.getSetNames("2064125")).thenReturn(Collections.singletonList("2064125_Ag_EU"));
+        identifierProvider.setSetsProvider(setsProvider);
+
+        String exact = toJson(identifierProvider.createFilter(null, null, "2064125"));
+        assertTrue(exact.contains("$in"));
+        assertTrue(exact.contains("2064125_Ag_EU"));
+
+        String prefix = toJson(identifierProvider.createFilter(null, null, "08506"));
+        assertTrue(prefix.contains("^\\\\Q08506_\\\\E"));
+    }
+
+    @Test(expected = BadResumptionToken.class)
+    public void invalidCursorMark() throws OaiPmhException {
+        identifierProvider.createKeysetFilter("abc:/2064125/b");
+    }
+
+    private static String toJson(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()).toJson();
+    }
+
+    private static Document record(String about, Date timestampUpdated, String... collectionNames) {
+        Document document = new Document("about", about);
+        if (timestampUpdated != null) {
+            document.append("timestampUpdated", timestampUpdated);
+        }
+        return document.append("europeanaCollectionName", new ArrayList<>(Arrays.asList(collectionNames)));
+    }
+}
@@ -0,0 +1,44 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.corelib.edm.utils.EdmUtils;
+import eu.europeana.metis.schema.jibx.RDF;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the EDM rendered by the {@link DBRecordProvider} is byte-for-byte the same as that of corelib for the
+ * FullBean fixtures (see {@link FullBeanFixtures})
+ */
+public class DBRecordProviderConversionTest {
+
+    // the provider isn't initialized (no Mongo connection), we only use the conversion methods
+    private final DBRecordProvider recordProvider = new DBRecordProvider();
+
+    @Test
+    public void getEDMSmallRecord() throws IOException, InternalServerErrorException {
+        assertSameAsCorelib("small");
+    }
+
+    @Test
+    public void getEDMMediumRecord() throws IOException, InternalServerErrorException {
+        assertSameAsCorelib("medium");
+    }
+
+    @Test
+    public void getEDMLargeRecord() throws IOException, InternalServerErrorException {
+        assertSameAsCorelib("large");
+    }
+
+    private void assertSameAsCorelib(String fixture) throws IOException, InternalServerErrorException {
+        RDF rdf = recordProvider.getRDF(FullBeanFixtures.load(fixture));
+        assertNotNull(rdf);
+
+        String corelibEdm = EdmUtils.toEDM(rdf);
+        String expected = corelibEdm.substring(corelibEdm.indexOf("?>") + "?>".length());
+        assertEquals(expected, recordProvider.getEDM(rdf));
+    }
+}
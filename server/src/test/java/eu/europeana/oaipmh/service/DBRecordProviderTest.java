@@ -1,9 +1,14 @@
 package eu.europeana.oaipmh.service;
 
-import eu.europeana.corelib.definitions.edm.beans.FullBean;
+import eu.europeana.corelib.definitions.edm.entity.WebResource;
+import eu.europeana.corelib.edm.model.metainfo.WebResourceMetaInfoImpl;
 import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
+import eu.europeana.corelib.solr.entity.AggregationImpl;
+import eu.europeana.corelib.solr.entity.EuropeanaAggregationImpl;
+import eu.europeana.corelib.solr.entity.WebResourceImpl;
 import eu.europeana.corelib.web.exception.EuropeanaException;
 import eu.europeana.metis.mongo.dao.RecordDao;
+import eu.europeana.metis.utils.ExternalRequestUtil;
 import eu.europeana.metis.schema.jibx.CollectionName;
 import eu.europeana.metis.schema.jibx.EuropeanaAggregationType;
 import eu.europeana.metis.schema.jibx.RDF;
@@ -12,20 +17,37 @@ import eu.europeana.oaipmh.model.ListRecords;
 import eu.europeana.oaipmh.model.RDFMetadata;
 import eu.europeana.oaipmh.model.Record;
 import eu.europeana.oaipmh.service.exception.IdDoesNotExistException;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
 import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import eu.europeana.oaipmh.service.exception.ServiceUnavailableException;
+import eu.europeana.oaipmh.util.CircuitBreaker;
 import eu.europeana.oaipmh.util.DateConverter;
+import org.bson.Document;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.DigestUtils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 
 import static junit.framework.TestCase.fail;
 import static org.mockito.BDDMockito.given;
@@ -49,6 +71,8 @@ public class DBRecordProviderTest extends BaseApiTestCase {
 
     private DBRecordProvider recordProvider;
 
+    private final Map<String, FullBeanImpl> beans = new HashMap<>();
+
     @Before
     public void initTest() {
 
@@ -75,29 +99,214 @@ public class DBRecordProviderTest extends BaseApiTestCase {
         assertRecordEquals(retrievedRecord, preparedRecord);
     }
 
-    private void prepareTest(String record) throws EuropeanaException {
+    @Test
+    public void getRecordWithAdaptiveConcurrency() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "adaptiveConcurrency", true);
+        ReflectionTestUtils.setField(recordProvider, "adaptiveConcurrencyInitialLimit", 20);
+        ReflectionTestUtils.setField(recordProvider, "adaptiveConcurrencyMinLimit", 4);
+        ReflectionTestUtils.setField(recordProvider, "adaptiveConcurrencyMaxWait", 1000L);
+        ReflectionTestUtils.invokeMethod(recordProvider, "initFetchLimiter");
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+
+        Record retrievedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+
+        // then
+        assertRecordEquals(retrievedRecord, preparedRecord);
+        AdaptiveConcurrencyLimiter limiter = (AdaptiveConcurrencyLimiter) ReflectionTestUtils.getField(recordProvider, "fetchLimiter");
+        Assert.assertNotNull(limiter);
+        Assert.assertEquals(0, limiter.getInFlight());
+        AdaptiveConcurrencyLimiter batchLimiter = (AdaptiveConcurrencyLimiter) ReflectionTestUtils.getField(recordProvider, "batchFetchLimiter");
+        Assert.assertNotNull(batchLimiter);
+        Assert.assertNotSame(limiter, batchLimiter);
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void getRecordWhenFetchLimitIsReached() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        prepareTest(loadRecord());
+        AdaptiveConcurrencyLimiter limiter = mock(AdaptiveConcurrencyLimiter.class);
+        given(limiter.execute(any())).willThrow(new AdaptiveConcurrencyLimiter.LimitExceededException("mongo_fetch"));
+        ReflectionTestUtils.setField(recordProvider, "fetchLimiter", limiter);
+
+        // when
+        recordProvider.getRecord(TEST_RECORD_ID);
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void getRecordWhenCircuitBreakerIsOpen() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        prepareTest(loadRecord());
+        CircuitBreaker circuitBreaker = ExternalRequestUtil.getCircuitBreaker(ExternalRequestUtil.MONGO);
+        circuitBreaker.configure(1, 60000);
+        circuitBreaker.onFailure();
+
+        // when
+        try {
+            recordProvider.getRecord(TEST_RECORD_ID);
+        } finally {
+            circuitBreaker.configure(0, 60000);
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    @Test
+    public void getRecordWithBatching() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "getRecordBatchWindowMicros", 1000L);
+        ReflectionTestUtils.setField(recordProvider, "getRecordBatchSize", 64);
+        ReflectionTestUtils.invokeMethod(recordProvider, "initGetRecordBatcher");
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+
+        Record retrievedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+
+        // then the record is retrieved with the batch query
+        Assert.assertNotNull(retrievedRecord);
+        assertRecordEquals(retrievedRecord, preparedRecord);
+        verify(recordProvider, times(1)).getFullBeans(Arrays.asList("/00101/00180020C7AF376F0C82A5F47CAD7BED272DF62A"));
+        verify(recordDao, never()).getFullBean(anyString());
+    }
+
+    @Test
+    public void listRecordsWithTechnicalMetadataPerPage() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "enhanceWithTechnicalMetadata", true);
+        ReflectionTestUtils.setField(recordProvider, "technicalMetadataPerPage", true);
+
+        String recordId = "/00101/00180020C7AF376F0C82A5F47CAD7BED272DF62A";
+        String webResourceId = "http://www.example.org/image.jpg";
+        String viewId = "http://www.example.org/view.jpg";
+        String previewId = "http://www.example.org/preview.jpg";
+        String hash = getWebResourceHash(webResourceId, recordId);
+        String viewHash = getWebResourceHash(viewId, recordId);
+        WebResourceImpl webResource = mock(WebResourceImpl.class);
+        given(webResource.getAbout()).willReturn(webResourceId);
+        AggregationImpl aggregation = mock(AggregationImpl.class);
+        doReturn(Collections.singletonList(webResource)).when(aggregation).getWebResources();
+        given(aggregation.getEdmIsShownBy()).willReturn(webResourceId);
+        given(aggregation.getHasView()).willReturn(new String[] {viewId});
+        EuropeanaAggregationImpl europeanaAggregation = mock(EuropeanaAggregationImpl.class);
+        given(europeanaAggregation.getEdmPreview()).willReturn(previewId);
+        FullBeanImpl bean = getBean(recordId);
+        doReturn(Collections.singletonList(aggregation)).when(bean).getAggregations();
+        doReturn(europeanaAggregation).when(bean).getEuropeanaAggregation();
+        WebResourceMetaInfoImpl metaInfo = mock(WebResourceMetaInfoImpl.class);
+        given(metaInfo.getId()).willReturn(hash);
+        WebResourceMetaInfoImpl viewMetaInfo = mock(WebResourceMetaInfoImpl.class);
+        given(viewMetaInfo.getId()).willReturn(viewHash);
+        doReturn(Arrays.asList(metaInfo, viewMetaInfo)).when(recordProvider).getWebResourceMetaInfo(anyCollection());
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+        List<Header> headers = new ArrayList<>();
+        headers.add(preparedRecord.getHeader());
+        ListRecords result = recordProvider.listRecords(headers);
+
+        // then the technical metadata of the page is retrieved with one query, also for the views and preview
+        Assert.assertEquals(1, result.getRecords().size());
+        verify(recordProvider, times(1)).getWebResourceMetaInfo(new HashSet<>(Arrays.asList(hash, viewHash,
+                getWebResourceHash(previewId, recordId))));
+        verify(webResource).setWebResourceMetaInfo(metaInfo);
+        // and web resources are added for views with technical metadata that aren't a web resource yet
+        verify(aggregation).setWebResources(argThat(webResources -> webResources.size() == 2
+                && viewId.equals(webResources.get(1).getAbout())
+                && ((WebResourceImpl) webResources.get(1)).getWebResourceMetaInfo() == viewMetaInfo));
+        verify(europeanaAggregation, never()).setWebResources(anyList());
+    }
+
+    /**
+     * The fixtures have web resources for their edm:isShownBy, edm:hasView and edm:object, but not for their
+     * edm:preview
+     */
+    @Test
+    public void technicalMetadataPerPageOfFixtures() throws IOException, InternalServerErrorException {
+        for (String fixture : Arrays.asList("small", "medium", "large")) {
+            // given
+            FullBeanImpl bean = FullBeanFixtures.load(fixture);
+            AggregationImpl aggregation = bean.getAggregations().get(0);
+            List<String> urls = new ArrayList<>();
+            aggregation.getWebResources().forEach(webResource -> urls.add(webResource.getAbout()));
+            String preview = bean.getEuropeanaAggregation().getEdmPreview();
+            urls.add(preview);
+            Map<String, WebResourceMetaInfoImpl> metaInfos = new HashMap<>();
+            for (String url : urls) {
+                WebResourceMetaInfoImpl metaInfo = mock(WebResourceMetaInfoImpl.class);
+                given(metaInfo.getId()).willReturn(getWebResourceHash(url, bean.getAbout()));
+                metaInfos.put(metaInfo.getId(), metaInfo);
+            }
+            doAnswer(invocation -> {
+                Collection<String> requested = invocation.getArgument(0);
+                return requested.stream().map(metaInfos::get).filter(Objects::nonNull).collect(Collectors.toList());
+            }).when(recordProvider).getWebResourceMetaInfo(anyCollection());
+
+            // when
+            recordProvider.enhanceWithTechnicalMetadata(Collections.singletonList(bean));
+
+            // then the technical metadata of all web resources and the preview is injected
+            verify(recordProvider).getWebResourceMetaInfo(metaInfos.keySet());
+            for (WebResource webResource : aggregation.getWebResources()) {
+                Assert.assertNotNull(((WebResourceImpl) webResource).getWebResourceMetaInfo());
+            }
+            Assert.assertEquals(1, bean.getEuropeanaAggregation().getWebResources().size());
+            WebResourceImpl previewResource = (WebResourceImpl) bean.getEuropeanaAggregation().getWebResources().get(0);
+            Assert.assertEquals(preview, previewResource.getAbout());
+            Assert.assertEquals(getWebResourceHash(preview, bean.getAbout()), previewResource.getWebResourceMetaInfo().getId());
+            clearInvocations(recordProvider);
+        }
+    }
+
+    private static String getWebResourceHash(String url, String recordId) {
+        return DigestUtils.md5DigestAsHex((url + "-" + recordId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void prepareTest(String record) throws EuropeanaException, OaiPmhException {
         RDF rdf = mock(RDF.class);
         EuropeanaAggregationType type = mock(EuropeanaAggregationType.class);
         CollectionName name = mock(CollectionName.class);
-        FullBean bean = mock(FullBeanImpl.class);
 
         List<EuropeanaAggregationType> types = new ArrayList<>();
         types.add(type);
 
-        given(recordDao.getFullBean(anyString())).willReturn(bean);
+        given(recordDao.getFullBean(anyString())).willAnswer(invocation -> getBean(invocation.getArgument(0)));
+        // the database returns the records in its own order
+        doAnswer(invocation -> {
+            List<FullBeanImpl> result = new ArrayList<>();
+            for (String recordId : invocation.<List<String>>getArgument(0)) {
+                result.add(0, getBean(recordId));
+            }
+            return result;
+        }).when(recordProvider).findFullBeans(anyList());
         given(rdf.getEuropeanaAggregationList()).willReturn(types);
         given(type.getCollectionName()).willReturn(name);
         doReturn(record).when(recordProvider).getEDM(any(RDF.class));
         doReturn(rdf).when(recordProvider).getRDF(any(FullBeanImpl.class));
         given(name.getString()).willReturn(TEST_RECORD_SETS[0]);
-        given(bean.getTimestampCreated()).willReturn(TEST_RECORD_CREATE_DATE);
-        given(bean.getEuropeanaCollectionName()).willReturn(TEST_RECORD_SETS);
 
         ReflectionTestUtils.setField(recordProvider, "threadsCount", 1);
         ReflectionTestUtils.setField(recordProvider, "maxThreadsCount", 20);
         ReflectionTestUtils.invokeMethod(recordProvider, "initThreadPool");
     }
 
+    private FullBeanImpl getBean(String recordId) {
+        return beans.computeIfAbsent(recordId, id -> {
+            FullBeanImpl bean = mock(FullBeanImpl.class);
+            given(bean.getAbout()).willReturn(id);
+            given(bean.getTimestampCreated()).willReturn(TEST_RECORD_CREATE_DATE);
+            given(bean.getEuropeanaCollectionName()).willReturn(TEST_RECORD_SETS);
+            return bean;
+        });
+    }
+
     private void assertRecordEquals(Record retrievedRecord, Record preparedRecord) {
         Header retrievedHeader = retrievedRecord.getHeader();
         Header preparedHeader = preparedRecord.getHeader();
@@ -151,22 +360,263 @@ public class DBRecordProviderTest extends BaseApiTestCase {
         assertRecordEquals(retrievedRecords.getRecords().get(0), preparedRecord);
     }
 
+    @Test
+    public void listRecordsKeepsHeaderOrder() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+
+        List<Header> headers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Header header = new Header();
+            header.setIdentifier(DEFAULT_IDENTIFIER_PREFIX + "/00101/RECORD_" + i);
+            headers.add(header);
+        }
+
+        // when
+        ListRecords retrievedRecords = recordProvider.listRecords(headers);
+
+        // then all records are fetched with one query and returned in the order of the headers
+        List<String> recordIds = new ArrayList<>();
+        for (int i = 0; i < headers.size(); i++) {
+            recordIds.add("/00101/RECORD_" + i);
+        }
+        verify(recordProvider, times(1)).findFullBeans(recordIds);
+        verify(recordDao, never()).getFullBean(anyString());
+        Assert.assertEquals(headers.size(), retrievedRecords.getRecords().size());
+        for (int i = 0; i < headers.size(); i++) {
+            Assert.assertEquals(headers.get(i).getIdentifier(), retrievedRecords.getRecords().get(i).getHeader().getIdentifier());
+        }
+    }
+
+    @Test
+    public void listRecordsInChunks() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "streamRecordsChunkSize", 2);
+
+        List<Header> headers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Header header = new Header();
+            header.setIdentifier(DEFAULT_IDENTIFIER_PREFIX + "/00101/RECORD_" + i);
+            headers.add(header);
+        }
+
+        // when
+        List<Record> retrievedRecords = new ArrayList<>();
+        recordProvider.listRecords(headers, retrievedRecords::add);
+
+        // then the records are fetched with one query per chunk and passed on in the order of the headers
+        verify(recordProvider, times(1)).findFullBeans(Arrays.asList("/00101/RECORD_0", "/00101/RECORD_1"));
+        verify(recordProvider, times(1)).findFullBeans(Arrays.asList("/00101/RECORD_2", "/00101/RECORD_3"));
+        verify(recordProvider, times(1)).findFullBeans(Collections.singletonList("/00101/RECORD_4"));
+        Assert.assertEquals(headers.size(), retrievedRecords.size());
+        for (int i = 0; i < headers.size(); i++) {
+            Assert.assertEquals(headers.get(i).getIdentifier(), retrievedRecords.get(i).getHeader().getIdentifier());
+        }
+    }
+
+    @Test
+    public void listRecordsWithVirtualThreads() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        ReflectionTestUtils.setField(recordProvider, "executorMode", "virtual");
+        String record = loadRecord();
+        prepareTest(record);
+
+        List<Header> headers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Header header = new Header();
+            header.setIdentifier(DEFAULT_IDENTIFIER_PREFIX + "/00101/RECORD_" + i);
+            headers.add(header);
+        }
+
+        ReflectionTestUtils.setField(recordProvider, "enhanceWithTechnicalMetadata", true);
+        RDF rdf = recordProvider.getRDF(getBean("/00101/RECORD_0"));
+        Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            virtual.add(Thread.currentThread().isVirtual());
+            return rdf;
+        }).when(recordProvider).getRDF(any(FullBeanImpl.class));
+
+        // when
+        ListRecords retrievedRecords = recordProvider.listRecords(headers);
+
+        // then the records are processed by virtual threads and all technical metadata permits are returned
+        Assert.assertEquals(Collections.singleton(true), virtual);
+        Semaphore permits = (Semaphore) ReflectionTestUtils.getField(recordProvider, "technicalMetadataPermits");
+        Assert.assertNotNull(permits);
+        Assert.assertEquals(100, permits.availablePermits());
+        Assert.assertEquals(headers.size(), retrievedRecords.getRecords().size());
+        for (int i = 0; i < headers.size(); i++) {
+            Assert.assertEquals(headers.get(i).getIdentifier(), retrievedRecords.getRecords().get(i).getHeader().getIdentifier());
+        }
+    }
+
+    @Test
+    public void listRecordsWithConversionPipeline() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "conversionPipeline", true);
+        ReflectionTestUtils.setField(recordProvider, "conversionThreadsCount", 2);
+        ReflectionTestUtils.setField(recordProvider, "conversionQueueSize", 1);
+        ReflectionTestUtils.invokeMethod(recordProvider, "initConversionPool");
+
+        List<Header> headers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Header header = new Header();
+            header.setIdentifier(DEFAULT_IDENTIFIER_PREFIX + "/00101/RECORD_" + i);
+            headers.add(header);
+        }
+
+        // when
+        ListRecords retrievedRecords = recordProvider.listRecords(headers);
+
+        // then every record is converted once and the records are returned in the order of the headers
+        verify(recordProvider, times(headers.size())).getEDM(any(RDF.class));
+        Assert.assertEquals(headers.size(), retrievedRecords.getRecords().size());
+        for (int i = 0; i < headers.size(); i++) {
+            Assert.assertEquals(headers.get(i).getIdentifier(), retrievedRecords.getRecords().get(i).getHeader().getIdentifier());
+        }
+        recordProvider.close();
+    }
+
+    @Test
+    public void getRecordFromEdmCache() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "edmCache", new RenderedRecordCache(1));
+        Document summary = new Document("timestampCreated", TEST_RECORD_CREATE_DATE)
+                .append("europeanaCollectionName", Arrays.asList(TEST_RECORD_SETS));
+        doReturn(summary).when(recordProvider).getRecordSummary(anyString());
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+        Record retrievedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+        Record cachedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+
+        // then only the second time the timestamps are looked up, and the record is not retrieved and converted again
+        verify(recordProvider, times(1)).getRecordSummary(anyString());
+        verify(recordDao, times(1)).getFullBean(anyString());
+        verify(recordProvider, times(1)).getEDM(any(RDF.class));
+        assertRecordEquals(retrievedRecord, preparedRecord);
+        assertRecordEquals(cachedRecord, preparedRecord);
+    }
+
+    @Test
+    public void getRecordVersion() throws OaiPmhException {
+        Date updated = DateConverter.fromIsoDateTime("2019-01-02T03:04:05Z");
+        doReturn(new Document("timestampCreated", TEST_RECORD_CREATE_DATE).append("timestampUpdated", updated))
+                .when(recordProvider).getRecordSummary(anyString());
+        Assert.assertEquals(updated, recordProvider.getRecordVersion(TEST_RECORD_ID).getLastModified());
+        Assert.assertNull(recordProvider.getRecordVersion(TEST_RECORD_ID).getTag());
+
+        // records without update timestamp were not modified after creation
+        doReturn(new Document("timestampCreated", TEST_RECORD_CREATE_DATE)).when(recordProvider).getRecordSummary(anyString());
+        Assert.assertEquals(TEST_RECORD_CREATE_DATE, recordProvider.getRecordVersion(TEST_RECORD_ID).getLastModified());
+        verify(recordDao, never()).getFullBean(anyString());
+    }
+
+    @Test(expected = IdDoesNotExistException.class)
+    public void getRecordVersionRecordDoesNotExist() throws OaiPmhException {
+        doReturn(null).when(recordProvider).getRecordSummary(anyString());
+        recordProvider.getRecordVersion(TEST_RECORD_ID);
+    }
+
+    @Test
+    public void getRecordVersionWithTechnicalMetadata() throws OaiPmhException {
+        // given
+        ReflectionTestUtils.setField(recordProvider, "enhanceWithTechnicalMetadata", true);
+        ReflectionTestUtils.setField(recordProvider, "conditionalGetRecordTechnicalMetadata", true);
+        String recordId = "/00101/00180020C7AF376F0C82A5F47CAD7BED272DF62A";
+        String webResourceId = "http://www.example.org/image.jpg";
+        String hash = getWebResourceHash(webResourceId, recordId);
+        doReturn(new Document("timestampCreated", TEST_RECORD_CREATE_DATE)).when(recordProvider).getRecordSummary(anyString());
+        WebResourceImpl webResource = mock(WebResourceImpl.class);
+        given(webResource.getAbout()).willReturn(webResourceId);
+        AggregationImpl aggregation = mock(AggregationImpl.class);
+        doReturn(Collections.singletonList(webResource)).when(aggregation).getWebResources();
+        FullBeanImpl resources = getBean(recordId);
+        doReturn(Collections.singletonList(aggregation)).when(resources).getAggregations();
+        doReturn(resources).when(recordProvider).getRecordResources(recordId);
+        doReturn(new ArrayList<>(Collections.singletonList(new Document("_id", hash).append("imageMetaInfo",
+                new Document("width", 100))))).when(recordProvider).getWebResourceMetaInfoDocuments(Collections.singleton(hash));
+
+        // when
+        RecordVersion version = recordProvider.getRecordVersion(TEST_RECORD_ID);
+        doReturn(new ArrayList<>(Collections.singletonList(new Document("_id", hash).append("imageMetaInfo",
+                new Document("width", 200))))).when(recordProvider).getWebResourceMetaInfoDocuments(Collections.singleton(hash));
+        RecordVersion changedVersion = recordProvider.getRecordVersion(TEST_RECORD_ID);
+
+        // then the tag changes with the technical metadata, while the record wasn't modified
+        Assert.assertEquals(TEST_RECORD_CREATE_DATE, version.getLastModified());
+        Assert.assertEquals(TEST_RECORD_CREATE_DATE, changedVersion.getLastModified());
+        Assert.assertNotNull(version.getTag());
+        Assert.assertNotEquals(version.getTag(), changedVersion.getTag());
+        verify(recordDao, never()).getFullBean(anyString());
+    }
+
+    @Test
+    public void getRecordWithVersionFromEdmCache() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "edmCache", new RenderedRecordCache(1));
+        Document summary = new Document("timestampCreated", TEST_RECORD_CREATE_DATE)
+                .append("europeanaCollectionName", Arrays.asList(TEST_RECORD_SETS));
+        doReturn(summary).when(recordProvider).getRecordSummary(anyString());
+        Record preparedRecord = prepareRecord(record);
+        recordProvider.getRecord(TEST_RECORD_ID);
+
+        // when
+        RecordVersion version = recordProvider.getRecordVersion(TEST_RECORD_ID);
+        Record cachedRecord = recordProvider.getRecord(TEST_RECORD_ID, version);
+
+        // then the timestamps looked up for the version are used to check the cache
+        verify(recordProvider, times(1)).getRecordSummary(anyString());
+        verify(recordDao, times(1)).getFullBean(anyString());
+        assertRecordEquals(cachedRecord, preparedRecord);
+    }
+
+    @Test
+    public void listRecordsFromEdmCache() throws IOException, EuropeanaException, OaiPmhException {
+        // given
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "edmCache", new RenderedRecordCache(1));
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+        List<Header> headers = new ArrayList<>();
+        headers.add(preparedRecord.getHeader());
+        recordProvider.listRecords(headers);
+        ListRecords cachedRecords = recordProvider.listRecords(headers);
+
+        // then the second time no records are retrieved from the database
+        verify(recordProvider, times(1)).getFullBeans(Arrays.asList("/00101/00180020C7AF376F0C82A5F47CAD7BED272DF62A"));
+        verify(recordProvider, times(1)).getEDM(any(RDF.class));
+        Assert.assertEquals(1, cachedRecords.getRecords().size());
+        assertRecordEquals(cachedRecords.getRecords().get(0), preparedRecord);
+    }
+
     @Test
     public void checkRecordExists() throws EuropeanaException, OaiPmhException {
         // given
-        FullBeanImpl bean = mock(FullBeanImpl.class);
-        given(recordDao.getFullBean(anyString())).willReturn(bean);
+        doReturn(true).when(recordProvider).recordExists(anyString());
 
         // when
         recordProvider.checkRecordExists(TEST_RECORD_ID);
 
-        // then if no error is thrown everything is fine
+        // then if no error is thrown everything is fine, and the full record is never loaded
+        verify(recordDao, never()).getFullBean(anyString());
     }
 
     @Test(expected = IdDoesNotExistException.class)
     public void checkRecordExistsWithWrongIdentifier() throws EuropeanaException, OaiPmhException {
         // given
-        given(recordDao.getFullBean(anyString())).willReturn(null);
+        doReturn(false).when(recordProvider).recordExists(anyString());
 
         // when
         recordProvider.checkRecordExists(TEST_RECORD_ID);
@@ -174,4 +624,54 @@ public class DBRecordProviderTest extends BaseApiTestCase {
         // then
         fail();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getRecordWithRecordIdFilter() throws IOException, EuropeanaException, OaiPmhException {
+        // given a filter that was refreshed recently and contains the record
+        String record = loadRecord();
+        prepareTest(record);
+        RecordIdFilter filter = new RecordIdFilter(100, 0.01);
+        filter.put("/00101/00180020C7AF376F0C82A5F47CAD7BED272DF62A");
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilter", filter);
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilterRefreshInterval", 60000L);
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilterRefreshed", System.currentTimeMillis());
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+        Record retrievedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+        try {
+            recordProvider.getRecord(DEFAULT_IDENTIFIER_PREFIX + "/00101/unknown");
+            fail();
+        } catch (IdDoesNotExistException e) {
+            // expected
+        }
+        try {
+            recordProvider.checkRecordExists(DEFAULT_IDENTIFIER_PREFIX + "/00101/unknown");
+            fail();
+        } catch (IdDoesNotExistException e) {
+            // expected
+        }
+
+        // then records rejected by the filter are not looked up in the database
+        assertRecordEquals(retrievedRecord, preparedRecord);
+        verify(recordDao, times(1)).getFullBean(anyString());
+        verify(recordProvider, never()).recordExists(anyString());
+    }
+
+    @Test
+    public void getRecordWithOutdatedRecordIdFilter() throws IOException, EuropeanaException, OaiPmhException {
+        // given a filter that doesn't contain the record and wasn't refreshed for a long time
+        String record = loadRecord();
+        prepareTest(record);
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilter", new RecordIdFilter(100, 0.01));
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilterRefreshInterval", 60000L);
+        ReflectionTestUtils.setField(recordProvider, "recordIdFilterRefreshed", System.currentTimeMillis() - 3 * 60000L);
+
+        // when
+        Record preparedRecord = prepareRecord(record);
+        Record retrievedRecord = recordProvider.getRecord(TEST_RECORD_ID);
+
+        // then the filter isn't used
+        assertRecordEquals(retrievedRecord, preparedRecord);
+    }
+}
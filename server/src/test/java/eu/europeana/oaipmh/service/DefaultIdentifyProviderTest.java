@@ -18,6 +18,8 @@ import org.springframework.test.util.ReflectionTestUtils;
 import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 @RunWith(MockitoJUnitRunner.class)
 @PropertySources(value = {})
@@ -72,4 +74,31 @@ public class DefaultIdentifyProviderTest extends SolrBasedProviderTestCase {
         assertEquals(1, identify.getCompression().length);
         assertEquals(COMPRESSION, identify.getCompression()[0]);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void provideIdentifyIsCached() throws OaiPmhException, IOException, SolrServerException {
+        QueryResponse response = getResponse(IDENTIFY);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+
+        Identify identify = defaultIdentifyProvider.provideIdentify();
+        assertSame(identify, defaultIdentifyProvider.provideIdentify());
+        Mockito.verify(solrClient, Mockito.times(1)).query(Mockito.any(SolrParams.class));
+
+        defaultIdentifyProvider.refreshIdentify();
+        Identify refreshed = defaultIdentifyProvider.provideIdentify();
+        assertNotSame(identify, refreshed);
+        assertEquals(EARLIEST_DATESTAMP, refreshed.getEarliestDatestamp());
+        Mockito.verify(solrClient, Mockito.times(2)).query(Mockito.any(SolrParams.class));
+    }
+
+    @Test
+    public void refreshIdentifyKeepsDataOnError() throws OaiPmhException, IOException, SolrServerException {
+        QueryResponse response = getResponse(IDENTIFY);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response).thenThrow(new SolrServerException("Solr is down"));
+
+        defaultIdentifyProvider.refreshIdentify();
+        Identify identify = defaultIdentifyProvider.provideIdentify();
+        defaultIdentifyProvider.refreshIdentify();
+        assertSame(identify, defaultIdentifyProvider.provideIdentify());
+    }
+}
@@ -16,8 +16,10 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.PropertySources;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
 
 import static org.junit.Assert.*;
@@ -29,6 +31,8 @@ public class DefaultSetsProviderTest extends SolrBasedProviderTestCase {
     private static final String LIST_SETS       = "listSets";
     private static final String LIST_SETS_FROM  = "listSetsFrom";
 
+    private static final String LIST_SETS_CATALOGUE = "listSetsCatalogue";
+
     private static final String LIST_SETS_WITH_RESUMPTION_TOKEN_SECOND_PAGE = "listSetsWithResumptionTokenSecondPage";
 
     private static final long RESUMPTION_TOKEN_TTL = 86400000;
@@ -81,7 +85,62 @@ public class DefaultSetsProviderTest extends SolrBasedProviderTestCase {
         Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
 
         ResumptionToken token = ResumptionTokenHelper.createResumptionToken(new Date(System.currentTimeMillis() + RESUMPTION_TOKEN_TTL), COMPLETE_LIST_SIZE, 0);
-        ListSets result = setsProvider.listSets(token);
+        ListSets result = setsProvider.listSets(ResumptionTokenHelper.decodeResumptionToken(token.getValue()));
+        assertResults(result);
+    }
+
+    private void prepareCatalogue() throws IOException, SolrServerException {
+        QueryResponse response = getResponse(LIST_SETS_CATALOGUE);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+        ReflectionTestUtils.setField(setsProvider, "setsCatalogueEnabled", true);
+        ReflectionTestUtils.setField(setsProvider, "setsCatalogueMaxAge", RESUMPTION_TOKEN_TTL);
+        ReflectionTestUtils.setField(setsProvider, "setsPerPage", 2);
+        setsProvider.refreshCatalogue();
+    }
+
+    @Test
+    public void listSetsFromCatalogue() throws IOException, SolrServerException, OaiPmhException {
+        prepareCatalogue();
+
+        ListSets firstPage = setsProvider.listSets(null, null);
+        assertResults(firstPage);
+        assertEquals(2, firstPage.getSets().size());
+        assertEquals("11631", firstPage.getSets().get(0).getSetSpec());
+        assertEquals("13", firstPage.getSets().get(1).getSetSpec());
+        assertEquals(4, firstPage.getResumptionToken().getCompleteListSize());
+
+        ListSets secondPage = setsProvider.listSets(ResumptionTokenHelper.decodeResumptionToken(firstPage.getResumptionToken().getValue()));
+        assertResults(secondPage);
+        assertEquals(2, secondPage.getSets().size());
+        assertEquals("2048211", secondPage.getSets().get(0).getSetSpec());
+        assertEquals("3", secondPage.getSets().get(1).getSetSpec());
+        assertNull(secondPage.getResumptionToken());
+
+        // only the catalogue itself was retrieved from Solr
+        Mockito.verify(solrClient, Mockito.times(1)).query(Mockito.any(SolrParams.class));
+    }
+
+    @Test
+    public void getSetNamesFromCatalogue() throws IOException, SolrServerException {
+        assertNull(setsProvider.getSetNames("13"));
+
+        prepareCatalogue();
+
+        assertEquals(Collections.singletonList("13_EKT_Onassis"), setsProvider.getSetNames("13"));
+        assertEquals(Collections.singletonList("2048211_Ag_EU_EuropeanaFashion_1019"), setsProvider.getSetNames("2048211"));
+        // unknown sets are not resolved
+        assertNull(setsProvider.getSetNames("1"));
+    }
+
+    @Test
+    public void listSetsFromNotFromCatalogue() throws IOException, SolrServerException, OaiPmhException {
+        prepareCatalogue();
+        QueryResponse response = getResponse(LIST_SETS_FROM);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+
+        // the catalogue doesn't know which sets have records in the date range, so Solr is queried
+        ListSets result = setsProvider.listSets(DateConverter.fromIsoDateTime(DATE_1), null);
         assertResults(result);
+        Mockito.verify(solrClient, Mockito.times(2)).query(Mockito.any(SolrParams.class));
     }
-}
\ No newline at end of file
+}
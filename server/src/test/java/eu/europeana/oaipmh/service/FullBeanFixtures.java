@@ -0,0 +1,100 @@
+package eu.europeana.oaipmh.service;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.DeserializationProblemHandler;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import eu.europeana.corelib.definitions.edm.entity.Agent;
+import eu.europeana.corelib.definitions.edm.entity.Aggregation;
+import eu.europeana.corelib.definitions.edm.entity.Concept;
+import eu.europeana.corelib.definitions.edm.entity.EuropeanaAggregation;
+import eu.europeana.corelib.definitions.edm.entity.Place;
+import eu.europeana.corelib.definitions.edm.entity.ProvidedCHO;
+import eu.europeana.corelib.definitions.edm.entity.Proxy;
+import eu.europeana.corelib.definitions.edm.entity.Timespan;
+import eu.europeana.corelib.definitions.edm.entity.WebResource;
+import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
+import eu.europeana.corelib.solr.entity.AgentImpl;
+import eu.europeana.corelib.solr.entity.AggregationImpl;
+import eu.europeana.corelib.solr.entity.ConceptImpl;
+import eu.europeana.corelib.solr.entity.EuropeanaAggregationImpl;
+import eu.europeana.corelib.solr.entity.PlaceImpl;
+import eu.europeana.corelib.solr.entity.ProvidedCHOImpl;
+import eu.europeana.corelib.solr.entity.ProxyImpl;
+import eu.europeana.corelib.solr.entity.TimespanImpl;
+import eu.europeana.corelib.solr.entity.WebResourceImpl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the FullBean fixtures used by the conversion tests and benchmarks. The fixtures in the <code>fullbeans</code>
+ * test resource folder are FullBeanImpl objects serialized as JSON (field names as in the corelib classes):
+ * <ul>
+ *     <li>small - one web resource, one agent and one concept</li>
+ *     <li>medium - a dozen web resources and some contextual entities, all with a few languages</li>
+ *     <li>large - 400 web resources, 150 agents and many other contextual entities in 8 languages</li>
+ * </ul>
+ */
+public final class FullBeanFixtures {
+
+    private static final Logger LOG = LogManager.getLogger(FullBeanFixtures.class);
+
+    private static final String FIXTURES_FOLDER = "fullbeans/";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        // only use fields, so we don't depend on the (sometimes overloaded) setters of the corelib classes
+        MAPPER.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        MAPPER.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        MAPPER.addHandler(new DeserializationProblemHandler() {
+            @Override
+            public boolean handleUnknownProperty(DeserializationContext ctxt, JsonParser p, JsonDeserializer<?> deserializer,
+                                                 Object beanOrClass, String propertyName) throws IOException {
+                LOG.warn("Fixture property {} is not a field of {}, it is ignored", propertyName,
+                        beanOrClass instanceof Class ? ((Class<?>) beanOrClass).getName() : beanOrClass.getClass().getName());
+                p.skipChildren();
+                return true;
+            }
+        });
+
+        SimpleModule module = new SimpleModule("corelib-entities");
+        module.addAbstractTypeMapping(Agent.class, AgentImpl.class);
+        module.addAbstractTypeMapping(Aggregation.class, AggregationImpl.class);
+        module.addAbstractTypeMapping(Concept.class, ConceptImpl.class);
+        module.addAbstractTypeMapping(EuropeanaAggregation.class, EuropeanaAggregationImpl.class);
+        module.addAbstractTypeMapping(Place.class, PlaceImpl.class);
+        module.addAbstractTypeMapping(ProvidedCHO.class, ProvidedCHOImpl.class);
+        module.addAbstractTypeMapping(Proxy.class, ProxyImpl.class);
+        module.addAbstractTypeMapping(Timespan.class, TimespanImpl.class);
+        module.addAbstractTypeMapping(WebResource.class, WebResourceImpl.class);
+        MAPPER.registerModule(module);
+    }
+
+    private FullBeanFixtures() {}
+
+    /**
+     * Load a fixture
+     * @param name name of the fixture (small, medium or large)
+     * @return deserialized record
+     * @throws IOException when the fixture doesn't exist or can't be read
+     */
+    public static FullBeanImpl load(String name) throws IOException {
+        String resource = FIXTURES_FOLDER + name + ".json";
+        try (InputStream stream = FullBeanFixtures.class.getClassLoader().getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new IOException("Fixture " + resource + " not found");
+            }
+            return MAPPER.readValue(stream, FullBeanImpl.class);
+        }
+    }
+}
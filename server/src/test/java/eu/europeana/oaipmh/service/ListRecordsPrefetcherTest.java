@@ -0,0 +1,63 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.model.ListRecords;
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ListRecordsPrefetcherTest {
+
+    private static final String TOKEN = "TOKEN";
+
+    private ListRecordsPrefetcher prefetcher;
+
+    @Before
+    public void init() {
+        prefetcher = new ListRecordsPrefetcher(2, 60000, 1);
+    }
+
+    @After
+    public void close() {
+        prefetcher.close();
+    }
+
+    @Test
+    public void takePrefetchedPage() {
+        ListRecords page = new ListRecords();
+        AtomicInteger loaded = new AtomicInteger();
+
+        prefetcher.prefetch(TOKEN, () -> {
+            loaded.incrementAndGet();
+            return page;
+        });
+        // same token again should not load the page a second time
+        prefetcher.prefetch(TOKEN, () -> {
+            loaded.incrementAndGet();
+            return page;
+        });
+
+        assertSame(page, prefetcher.take(TOKEN));
+        assertEquals(1, loaded.get());
+        // a page can be taken only once
+        assertNull(prefetcher.take(TOKEN));
+    }
+
+    @Test
+    public void takeUnknownPage() {
+        assertNull(prefetcher.take(TOKEN));
+    }
+
+    @Test
+    public void takeFailedPage() {
+        prefetcher.prefetch(TOKEN, () -> {
+            throw new InternalServerErrorException("Error retrieving data");
+        });
+
+        assertNull(prefetcher.take(TOKEN));
+    }
+}
@@ -0,0 +1,172 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.service.exception.InternalServerErrorException;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MicroBatcherTest {
+
+    private static final int BATCH_SIZE = 4;
+
+    private static final String BLOCKING_KEY = "blocking";
+
+    // long enough that a test never depends on the window to pass when the batch is full
+    private static final long LONG_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(30);
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    // loading the key "blocking" waits for this latch, so other requests see a request in progress
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    private Map<String, String> load(List<String> keys) throws InternalServerErrorException {
+        batches.add(new ArrayList<>(keys));
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            if (BLOCKING_KEY.equals(key)) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalServerErrorException("Interrupted");
+                }
+            }
+            if (!key.startsWith("missing")) {
+                // a new instance every time, so we can check that requests don't share values
+                values.put(key, new String("value-" + key));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Start a request that stays in progress until unblocked
+     */
+    private Future<String> startBlockingRequest(MicroBatcher<String> batcher, ExecutorService executor) throws InterruptedException {
+        Future<String> blocking = executor.submit(() -> batcher.get(BLOCKING_KEY));
+        while (batches.isEmpty()) {
+            Thread.sleep(1);
+        }
+        return blocking;
+    }
+
+    @Test
+    public void concurrentRequestsAreLoadedInOneBatch() throws Exception {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", this::load, BATCH_SIZE, LONG_WINDOW_MICROS);
+        ExecutorService executor = Executors.newFixedThreadPool(BATCH_SIZE + 1);
+        try {
+            Future<String> blocking = startBlockingRequest(batcher, executor);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                String key = "key" + i;
+                results.add(executor.submit(() -> batcher.get(key)));
+            }
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                assertEquals("value-key" + i, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            unblock.countDown();
+            assertEquals("value-" + BLOCKING_KEY, blocking.get(5, TimeUnit.SECONDS));
+            assertEquals(2, batches.size());
+            assertEquals(BATCH_SIZE, batches.get(1).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchIsLoadedAfterWindow() throws Exception {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", this::load, BATCH_SIZE, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> blocking = startBlockingRequest(batcher, executor);
+            assertEquals("value-key", batcher.get("key"));
+            assertNull(batcher.get("missing"));
+            unblock.countDown();
+            blocking.get(5, TimeUnit.SECONDS);
+            assertEquals(3, batches.size());
+            assertEquals(Collections.singletonList("key"), batches.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestIsLoadedRightAwayWhenAlone() throws OaiPmhException {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", this::load, BATCH_SIZE, LONG_WINDOW_MICROS);
+        long start = System.nanoTime();
+        assertEquals("value-key", batcher.get("key"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(Collections.singletonList(Collections.singletonList("key")), batches);
+    }
+
+    @Test
+    public void duplicateKeysGetTheirOwnValue() throws Exception {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", this::load, 2, LONG_WINDOW_MICROS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> blocking = startBlockingRequest(batcher, executor);
+            Future<String> first = executor.submit(() -> batcher.get("key"));
+            Future<String> second = executor.submit(() -> batcher.get("key"));
+            // both requests for the key have to be in the batch before it's filled up
+            AtomicInteger inProgress = (AtomicInteger) ReflectionTestUtils.getField(batcher, "inProgress");
+            while (inProgress.get() < 3) {
+                Thread.sleep(1);
+            }
+            Future<String> other = executor.submit(() -> batcher.get("other"));
+
+            assertEquals("value-key", first.get(5, TimeUnit.SECONDS));
+            assertEquals("value-key", second.get(5, TimeUnit.SECONDS));
+            assertEquals("value-other", other.get(5, TimeUnit.SECONDS));
+            // the duplicate is loaded again, so the requests don't share one instance
+            assertNotSame(first.get(), second.get());
+            assertEquals(Arrays.asList("key", "other"), batches.get(1));
+            assertEquals(Collections.singletonList("key"), batches.get(2));
+            unblock.countDown();
+            blocking.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void errorIsThrownToAllRequests() throws Exception {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", keys -> {
+            throw new InternalServerErrorException("Database problems");
+        }, 2, LONG_WINDOW_MICROS);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> batcher.get("key1"));
+            Future<String> second = executor.submit(() -> batcher.get("key2"));
+            assertError(first);
+            assertError(second);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertError(Future<String> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InternalServerErrorException);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package eu.europeana.oaipmh.service;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class PrerenderedResponseTest {
+
+    private static final String BASE_URL = "https://oai.europeana.eu/oai";
+
+    private static final String RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<OAI-PMH><responseDate>2018-03-16T10:10:32Z</responseDate><request verb=\"Identify\">https://oai.europeana.eu/oai</request><Identify><repositoryName>Europeana Repository – v2</repositoryName></Identify></OAI-PMH>";
+
+    @Test
+    public void renderResponseDate() {
+        Object source = new Object();
+        PrerenderedResponse prerendered = new PrerenderedResponse(source, BASE_URL, RESPONSE.getBytes(StandardCharsets.UTF_8));
+
+        String rendered = new String(prerendered.render(new Date(0)), StandardCharsets.UTF_8);
+        assertEquals(RESPONSE.replace("2018-03-16T10:10:32Z", "1970-01-01T00:00:00Z"), rendered);
+
+        assertTrue(prerendered.isFor(source, BASE_URL));
+        assertFalse(prerendered.isFor(new Object(), BASE_URL));
+        assertFalse(prerendered.isFor(source, "http://localhost/oai"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingResponseDate() {
+        new PrerenderedResponse(new Object(), BASE_URL, "<OAI-PMH></OAI-PMH>".getBytes(StandardCharsets.UTF_8));
+    }
+}
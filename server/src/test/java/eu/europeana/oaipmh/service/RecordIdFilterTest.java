@@ -0,0 +1,66 @@
+package eu.europeana.oaipmh.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordIdFilterTest {
+
+    private static final int NR_RECORDS = 10_000;
+
+    @Test
+    public void containsAddedIds() {
+        RecordIdFilter filter = new RecordIdFilter(NR_RECORDS, 0.01);
+        for (int i = 0; i < NR_RECORDS; i++) {
+            filter.put("/2048432/item_" + i);
+        }
+        for (int i = 0; i < NR_RECORDS; i++) {
+            assertTrue(filter.mightContain("/2048432/item_" + i));
+        }
+        assertEquals(NR_RECORDS, filter.size());
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        RecordIdFilter filter = new RecordIdFilter(NR_RECORDS, 0.01);
+        for (int i = 0; i < NR_RECORDS; i++) {
+            filter.put("/2048432/item_" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < NR_RECORDS; i++) {
+            if (filter.mightContain("/9200365/unknown_" + i)) {
+                falsePositives++;
+            }
+        }
+        // 1% expected, allow some margin
+        assertTrue("False positives: " + falsePositives, falsePositives < NR_RECORDS * 0.02);
+    }
+
+    @Test
+    public void concurrentPuts() throws InterruptedException {
+        RecordIdFilter filter = new RecordIdFilter(NR_RECORDS, 0.01);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < NR_RECORDS; i += threads.length) {
+                    filter.put("/2048432/item_" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < NR_RECORDS; i++) {
+            assertTrue(filter.mightContain("/2048432/item_" + i));
+        }
+        assertEquals(NR_RECORDS, filter.size());
+    }
+
+    @Test
+    public void emptyFilterRejectsAll() {
+        RecordIdFilter filter = new RecordIdFilter(NR_RECORDS, 0.01);
+        assertFalse(filter.mightContain("/2048432/item_1"));
+    }
+}
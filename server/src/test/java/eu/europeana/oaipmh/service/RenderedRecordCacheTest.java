@@ -0,0 +1,50 @@
+package eu.europeana.oaipmh.service;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class RenderedRecordCacheTest {
+
+    private static final String RECORD_ID = "/2021672/resource_document_mauritshuis_670";
+
+    private static final String EDM = "<rdf:RDF><edm:ProvidedCHO rdf:about=\"/2021672/resource_document_mauritshuis_670\"/>" +
+            "<ore:Aggregation><edm:dataProvider>Mauritshuis – Den Haag</edm:dataProvider></ore:Aggregation></rdf:RDF>";
+
+    @Test
+    public void getEdm() {
+        RenderedRecordCache cache = new RenderedRecordCache(1);
+        Date timestamp = new Date();
+        cache.put(RECORD_ID, timestamp, EDM);
+
+        assertEquals(EDM, cache.get(RECORD_ID, timestamp));
+        assertNull(cache.get(RECORD_ID, new Date(timestamp.getTime() + 1)));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void replaceUpdatedRecord() {
+        RenderedRecordCache cache = new RenderedRecordCache(1);
+        Date timestamp = new Date();
+        Date updated = new Date(timestamp.getTime() + 1000);
+        cache.put(RECORD_ID, timestamp, EDM);
+        cache.put(RECORD_ID, updated, EDM);
+
+        assertTrue(cache.contains(RECORD_ID));
+        assertNull(cache.get(RECORD_ID, timestamp));
+        assertEquals(EDM, cache.get(RECORD_ID, updated));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expireAfterWrite() throws InterruptedException {
+        RenderedRecordCache cache = new RenderedRecordCache(1, 10);
+        cache.put(RECORD_ID, null, EDM);
+        Thread.sleep(50);
+
+        assertNull(cache.get(RECORD_ID, null));
+        assertFalse(cache.contains(RECORD_ID));
+    }
+}
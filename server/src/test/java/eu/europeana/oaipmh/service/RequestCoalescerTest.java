@@ -0,0 +1,135 @@
+package eu.europeana.oaipmh.service;
+
+import eu.europeana.oaipmh.service.exception.IdDoesNotExistException;
+import eu.europeana.oaipmh.service.exception.OaiPmhException;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+
+    private static final String KEY = RequestCoalescer.key("GetRecord", "/00101/RECORD");
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    @Test
+    public void concurrentRequestsShareResult() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loaded = new AtomicInteger();
+        Object result = new Object();
+        RequestCoalescer.Loader<Object> loader = () -> {
+            loaded.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> coalescer.execute(KEY, loader));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = submitWaiting(executor, () -> coalescer.execute(KEY, loader));
+            release.countDown();
+
+            assertSame(result, first.get(5, TimeUnit.SECONDS));
+            assertSame(result, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loaded.get());
+            assertEquals(0, coalescer.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequentialRequestsAreNotShared() throws OaiPmhException {
+        AtomicInteger loaded = new AtomicInteger();
+
+        coalescer.execute(KEY, loaded::incrementAndGet);
+        coalescer.execute(KEY, loaded::incrementAndGet);
+
+        assertEquals(2, loaded.get());
+    }
+
+    @Test
+    public void errorIsSharedAndNotKept() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RequestCoalescer.Loader<Object> failing = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IdDoesNotExistException("/00101/RECORD");
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> coalescer.execute(KEY, failing));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = submitWaiting(executor, () -> coalescer.execute(KEY, () -> {
+                fail("Identical request in progress should not be loaded again");
+                return null;
+            }));
+            release.countDown();
+
+            assertFailsWith(IdDoesNotExistException.class, first);
+            assertFailsWith(IdDoesNotExistException.class, second);
+        } finally {
+            executor.shutdownNow();
+        }
+        // the error is not kept, so the next request is loaded again
+        assertEquals("loaded", coalescer.execute(KEY, () -> "loaded"));
+    }
+
+    @Test
+    public void keyContainsAllParameters() {
+        assertEquals("ListRecords|edm|null|1000|null|TOKEN",
+                RequestCoalescer.key("ListRecords", "edm", null, 1000L, null, "TOKEN"));
+    }
+
+    /**
+     * Submit the request and wait until it's blocked waiting for the identical request in progress
+     */
+    private static Future<Object> submitWaiting(ExecutorService executor, Callable<Object> request) throws InterruptedException {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        Future<Object> future = executor.submit(() -> {
+            thread.set(Thread.currentThread());
+            return request.call();
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.get() == null || thread.get().getState() != Thread.State.WAITING) {
+            assertTrue("Request is not waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return future;
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, Future<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(expected.isInstance(e.getCause()));
+        } catch (TimeoutException e) {
+            fail("Request did not finish");
+        }
+    }
+}
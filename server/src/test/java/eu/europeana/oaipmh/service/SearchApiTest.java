@@ -8,16 +8,20 @@ import eu.europeana.oaipmh.util.DateConverter;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.PropertySources;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
 
 import static org.junit.Assert.*;
@@ -127,6 +131,62 @@ public class SearchApiTest extends SolrBasedProviderTestCase {
         assertResults(result, from, until, SET_2);
     }
 
+    @Test
+    public void listIdentifiersSetFilter() throws OaiPmhException, IOException, SolrServerException {
+        QueryResponse response = getResponse(LIST_IDENTIFIERS_SET);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+        SetsProvider setsProvider = Mockito.mock(SetsProvider.class);
+        Mockito.when(setsProvider.getSetNames(SET_1)).thenReturn(Collections.singletonList(SET_1 + "_Ag_Test"));
+        Mockito.when(setsProvider.getSetNames(SET_2)).thenReturn(null);
+        searchApi.setSetsProvider(setsProvider);
+
+        searchApi.listIdentifiers(METADATA_FORMAT, null, null, SET_1, IDENTIFIERS_PER_PAGE);
+        searchApi.listIdentifiers(METADATA_FORMAT, null, null, SET_2, IDENTIFIERS_PER_PAGE);
+
+        // known sets are filtered on the exact set name, unknown sets on the set identifier prefix
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        Mockito.verify(solrClient, Mockito.times(2)).query(params.capture());
+        assertArrayEquals(new String[] {"{!term f=edm_datasetName}" + SET_1 + "_Ag_Test"},
+                params.getAllValues().get(0).getParams(CommonParams.FQ));
+        assertArrayEquals(new String[] {"edm_datasetName:" + SET_2 + "_*"},
+                params.getAllValues().get(1).getParams(CommonParams.FQ));
+    }
+
+    @Test
+    public void listIdentifiersDateFilter() throws OaiPmhException, IOException, SolrServerException {
+        QueryResponse response = getResponse(LIST_IDENTIFIERS_FROM_UNTIL);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+        Date from = DateConverter.fromIsoDateTime(DATE_2);
+        Date until = DateConverter.fromIsoDateTime(DATE_3);
+
+        searchApi.listIdentifiers(METADATA_FORMAT, from, until, null, IDENTIFIERS_PER_PAGE);
+
+        // without rounding only the exact range is used, and it's not cached
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        Mockito.verify(solrClient).query(params.capture());
+        assertArrayEquals(new String[] {"{!cache=false cost=100}timestamp_update:[" + DATE_2 + " TO " + DATE_3 + "]"},
+                params.getValue().getParams(CommonParams.FQ));
+    }
+
+    @Test
+    public void listIdentifiersRoundedDateFilter() throws OaiPmhException, IOException, SolrServerException {
+        QueryResponse response = getResponse(LIST_IDENTIFIERS_FROM_UNTIL);
+        Mockito.when(solrClient.query(Mockito.any(SolrParams.class))).thenReturn(response);
+        ReflectionTestUtils.setField(searchApi, "dateRangeRounding", "DAY");
+        Date from = DateConverter.fromIsoDateTime(DATE_2);
+        Date until = DateConverter.fromIsoDateTime(DATE_3);
+
+        searchApi.listIdentifiers(METADATA_FORMAT, from, until, null, IDENTIFIERS_PER_PAGE);
+
+        // the rounded range can be cached, the exact range is not cached
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        Mockito.verify(solrClient).query(params.capture());
+        assertArrayEquals(new String[] {
+                "timestamp_update:[" + DATE_2 + "/DAY TO " + DATE_3 + "/DAY+1DAY}",
+                "{!cache=false cost=100}timestamp_update:[" + DATE_2 + " TO " + DATE_3 + "]"},
+                params.getValue().getParams(CommonParams.FQ));
+    }
+
     private void assertResults(ListIdentifiers results, Date from, Date until, String set) {
         assertNotNull(results);
         assertNotNull(results.getHeaders());
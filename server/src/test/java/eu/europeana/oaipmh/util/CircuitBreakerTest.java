@@ -0,0 +1,29 @@
+package eu.europeana.oaipmh.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void circuitBreakerClosesAfterSuccessfulTrial() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test_trial", 1, 0);
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void circuitBreakerNeverOpensWithoutThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test_no_threshold", 0, 0);
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+}
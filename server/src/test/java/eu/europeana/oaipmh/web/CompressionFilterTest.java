@@ -0,0 +1,87 @@
+package eu.europeana.oaipmh.web;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionFilterTest {
+
+    private static final String RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<OAI-PMH><responseDate>2018-03-16T10:10:32Z</responseDate></OAI-PMH>";
+
+    private final CompressionFilter filter = new CompressionFilter(new String[] {"gzip", "deflate"}, 6, 512);
+
+    @Test
+    public void negotiateEncoding() {
+        assertNull(filter.negotiateEncoding(null));
+        assertNull(filter.negotiateEncoding("identity"));
+        assertEquals("gzip", filter.negotiateEncoding("gzip, deflate, br"));
+        assertEquals("gzip", filter.negotiateEncoding("x-gzip"));
+        assertEquals("deflate", filter.negotiateEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", filter.negotiateEncoding("gzip;q=0, *"));
+        assertNull(filter.negotiateEncoding("gzip;q=0, deflate;q=0"));
+    }
+
+    @Test
+    public void compressGzip() throws Exception {
+        MockHttpServletResponse response = execute("gzip");
+
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+        assertNull(response.getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertEquals(RESPONSE, read(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+    }
+
+    @Test
+    public void compressDeflate() throws Exception {
+        MockHttpServletResponse response = execute("deflate");
+
+        assertEquals("deflate", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(RESPONSE, read(new InflaterInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+    }
+
+    @Test
+    public void noCompression() throws Exception {
+        MockHttpServletResponse response = execute(null);
+
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+        assertEquals(RESPONSE, response.getContentAsString(StandardCharsets.UTF_8));
+    }
+
+    private MockHttpServletResponse execute(String acceptEncoding) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/oai");
+        if (acceptEncoding != null) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+                resp.setContentLength(bytes.length);
+                resp.getOutputStream().write(bytes);
+            }
+        }));
+        return response;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package eu.europeana.oaipmh.web;
 
+import eu.europeana.oaipmh.model.OAIError;
 import eu.europeana.oaipmh.model.request.*;
+import eu.europeana.oaipmh.model.response.OAIResponse;
 import eu.europeana.oaipmh.service.OaiPmhService;
+import eu.europeana.oaipmh.service.RecordVersion;
+import eu.europeana.oaipmh.service.exception.ErrorCode;
 import eu.europeana.oaipmh.service.exception.GlobalExceptionHandler;
 import org.apache.commons.io.Charsets;
 import org.junit.Before;
@@ -15,18 +19,25 @@ import org.springframework.boot.autoconfigure.web.servlet.HttpEncodingAutoConfig
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Date;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -89,11 +100,13 @@ public class VerbControllerTest {
 
     @Test
     public void testIdentify() throws Exception {
-        given(ops.getIdentify(any(IdentifyRequest.class))).willReturn(IDENTIFY_RESPONSE);
+        given(ops.getIdentify(any(IdentifyRequest.class))).willReturn(IDENTIFY_RESPONSE.getBytes(StandardCharsets.UTF_8));
 
         this.mockMvc.perform(MockMvcRequestBuilders.get("/oai?verb=Identify").accept(MediaType.parseMediaType("text/xml")))
                 .andExpect(status().isOk())
-                .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.TEXT_XML));
+                .andExpect(MockMvcResultMatchers.request().asyncNotStarted())
+                .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.TEXT_XML))
+                .andExpect(MockMvcResultMatchers.content().string(IDENTIFY_RESPONSE));
 
         this.mockMvc.perform(MockMvcRequestBuilders.post("/oai?verb=Identify").accept(MediaType.parseMediaType("application/xml")))
                 .andExpect(status().isOk())
@@ -153,6 +166,57 @@ public class VerbControllerTest {
                 .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.APPLICATION_XML_VALUE));
     }
 
+    @Test
+    public void testGetRecordConditional() throws Exception {
+        ReflectionTestUtils.setField(verbController, "conditionalGetRecord", true);
+        given(ops.getRecordVersion(any(GetRecordRequest.class))).willReturn(new RecordVersion(new Date(1521034651000L), null));
+        given(ops.getRecord(any(GetRecordRequest.class), any(RecordVersion.class))).willReturn(RECORD_RESPONSE);
+        String url = "/oai?verb=GetRecord&metadataPrefix=edm&identifier=90402/BK_1978_399";
+
+        MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(header().string(HttpHeaders.LAST_MODIFIED, "Wed, 14 Mar 2018 13:37:31 GMT"))
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag));
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_MODIFIED_SINCE, "Wed, 14 Mar 2018 13:37:31 GMT"))
+                .andExpect(status().isNotModified());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+
+        // the record is only retrieved when it's returned
+        verify(ops, times(2)).getRecord(any(GetRecordRequest.class), any(RecordVersion.class));
+    }
+
+    @Test
+    public void testGetRecordConditionalWithTag() throws Exception {
+        ReflectionTestUtils.setField(verbController, "conditionalGetRecord", true);
+        given(ops.getRecordVersion(any(GetRecordRequest.class))).willReturn(new RecordVersion(new Date(1521034651000L), "1"));
+        given(ops.getRecord(any(GetRecordRequest.class), any(RecordVersion.class))).willReturn(RECORD_RESPONSE);
+        String url = "/oai?verb=GetRecord&metadataPrefix=edm&identifier=90402/BK_1978_399";
+
+        MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED))
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // the modification date doesn't cover the tagged data, so it can't be used to validate the response
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_MODIFIED_SINCE, "Wed, 14 Mar 2018 13:37:31 GMT"))
+                .andExpect(status().isOk());
+
+        // and a new tag gives a new ETag
+        given(ops.getRecordVersion(any(GetRecordRequest.class))).willReturn(new RecordVersion(new Date(1521034651000L), "2"));
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void testListIdentifiersWithResumptionToken() throws Exception {
         given(ops.listIdentifiers(any(ListIdentifiersRequest.class))).willReturn(LIST_IDENTIFIERS_RESPONSE_WITH_TOKEN);
@@ -173,6 +237,7 @@ public class VerbControllerTest {
     @Test
     public void testListIdentifiersWithCorruptedResumptionToken() throws Exception {
         given(ops.listIdentifiers(any(ListIdentifiersRequest.class))).willCallRealMethod();
+        given(ops.getListIdentifiersResponse(any(ListIdentifiersRequest.class))).willCallRealMethod();
 
         this.mockMvc.perform(MockMvcRequestBuilders.get("/oai?verb=ListIdentifiers&resumptionToken=" + LIST_IDENTIFIERS_CORRUPTED_TOKEN).accept(MediaType.parseMediaType("text/xml")))
                 .andExpect(status().isBadRequest())
@@ -303,12 +368,32 @@ public class VerbControllerTest {
 
         this.mockMvc.perform(MockMvcRequestBuilders.get("/oai?verb=ListRecords&resumptionToken=" + LIST_RECORDS_TOKEN))
                 .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.request().asyncNotStarted())
                 .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.APPLICATION_XML_VALUE));
     }
 
+    @Test
+    public void testListRecordsStreamed() throws Exception {
+        ReflectionTestUtils.setField(verbController, "streamResponses", true);
+        ListRecordsRequest request = new ListRecordsRequest("ListRecords", "https://oai.europeana.eu/oai", LIST_RECORDS_TOKEN);
+        OAIResponse error = new OAIError(ErrorCode.NO_RECORDS_MATCH, "No records found!").getResponse(request);
+        doCallRealMethod().when(ops).serialize(any(OAIResponse.class), any(OutputStream.class));
+        given(ops.streamListRecords(any(ListRecordsRequest.class))).willReturn(outputStream -> ops.serialize(error, outputStream));
+
+        MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.get("/oai?verb=ListRecords&resumptionToken=" + LIST_RECORDS_TOKEN).accept(MediaType.parseMediaType("text/xml")))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.TEXT_XML))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("<OAI-PMH")))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("noRecordsMatch")));
+    }
+
     @Test
     public void testListRecordsWithCorruptedResumptionToken() throws Exception {
         given(ops.listRecords(any(ListRecordsRequest.class))).willCallRealMethod();
+        given(ops.getListRecordsResponse(any(ListRecordsRequest.class))).willCallRealMethod();
 
         this.mockMvc.perform(MockMvcRequestBuilders.get("/oai?verb=ListRecords&resumptionToken=" + LIST_RECORDS_CORRUPTED_TOKEN).accept(MediaType.parseMediaType("text/xml")))
                 .andExpect(status().isBadRequest())